@@ -0,0 +1,58 @@
+package com.kezong.fataar;
+
+import org.gradle.api.Project;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Explode an aar and index it by {@link ExplodeAarTask}, which replaced ExplodedHelper.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ExplodeAarBenchmark {
+
+    @Param({"500", "5000"})
+    public int classCount;
+
+    @Param({"1000", "20000"})
+    public int symbolCount;
+
+    private File mWorkDir;
+
+    private ExplodeAarTask mTask;
+
+    @Setup
+    public void setup() throws IOException {
+        mWorkDir = Files.createTempDirectory("fat-aar-jmh").toFile();
+        File aar = new File(mWorkDir, "lib.aar");
+        SyntheticAars.writeAar(aar, "com.kezong.lib", classCount, symbolCount, 10);
+
+        Project project = SyntheticAars.createProject(new File(mWorkDir, "project"));
+        mTask = project.getTasks().create("explodeLib", ExplodeAarTask.class);
+        mTask.setAarFile(aar);
+        mTask.setOutputDir(new File(mWorkDir, "exploded"));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        SyntheticAars.delete(mWorkDir);
+    }
+
+    @Benchmark
+    public void explode() throws IOException {
+        mTask.explode();
+    }
+}
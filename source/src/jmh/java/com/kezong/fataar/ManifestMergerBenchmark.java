@@ -0,0 +1,66 @@
+package com.kezong.fataar;
+
+import org.gradle.api.Project;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merge the manifests of the embedded aars into the manifest of the module by {@link LibraryManifestMerger}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ManifestMergerBenchmark {
+
+    @Param({"10", "50", "200"})
+    public int libraryCount;
+
+    private File mWorkDir;
+
+    private LibraryManifestMerger mTask;
+
+    @Setup
+    public void setup() throws IOException {
+        mWorkDir = Files.createTempDirectory("fat-aar-jmh").toFile();
+        File mainManifest = new File(mWorkDir, "main/AndroidManifest.xml");
+        SyntheticAars.writeManifest(mainManifest, SyntheticAars.TARGET_PACKAGE);
+        List<File> libraryManifests = new ArrayList<>();
+        for (String packageName : SyntheticAars.packageNames(libraryCount)) {
+            File manifest = new File(mWorkDir, packageName + "/AndroidManifest.xml");
+            SyntheticAars.writeManifest(manifest, packageName);
+            libraryManifests.add(manifest);
+        }
+
+        Project project = SyntheticAars.createProject(new File(mWorkDir, "project"));
+        mTask = project.getTasks().create("mergeManifest", LibraryManifestMerger.class);
+        mTask.getMainManifest().set(mainManifest);
+        mTask.setSecondaryManifestFiles(libraryManifests);
+        File outputFile = new File(mWorkDir, "merged/AndroidManifest.xml");
+        mTask.getMergedManifest().set(outputFile);
+        Files.createDirectories(outputFile.getParentFile().toPath());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        SyntheticAars.delete(mWorkDir);
+    }
+
+    @Benchmark
+    public void merge() {
+        mTask.doTaskAction();
+    }
+}
@@ -0,0 +1,75 @@
+package com.kezong.fataar;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rewrite a class directory as {@link RClassesTransform} does for a non incremental build,
+ * half of the classes reference R classes of the embedded packages.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RClassesRewriterBenchmark {
+
+    @Param({"1000", "10000"})
+    public int classCount;
+
+    @Param({"10", "100"})
+    public int packageCount;
+
+    private File mWorkDir;
+
+    private File mInputDir;
+
+    private File mOutputDir;
+
+    private List<String> mPaths;
+
+    private Map<String, String> mTransformTable;
+
+    private final RClassesRewriter mRewriter = new RClassesRewriter();
+
+    @Setup
+    public void setup() throws IOException {
+        mWorkDir = Files.createTempDirectory("fat-aar-jmh").toFile();
+        mInputDir = new File(mWorkDir, "input");
+        mOutputDir = new File(mWorkDir, "output");
+        List<String> packageNames = SyntheticAars.packageNames(packageCount);
+        mPaths = SyntheticAars.writeClasses(mInputDir, SyntheticAars.TARGET_PACKAGE, classCount, packageNames);
+        for (String path : mPaths) {
+            Files.createDirectories(new File(mOutputDir, path).getParentFile().toPath());
+        }
+        mTransformTable = RClassesTransform.buildTransformTable(SyntheticAars.TARGET_PACKAGE, packageNames);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        SyntheticAars.delete(mWorkDir);
+    }
+
+    @Benchmark
+    public int rewrite() throws IOException {
+        int rewrittenCount = 0;
+        for (String path : mPaths) {
+            if (mRewriter.rewrite(new File(mInputDir, path), new File(mOutputDir, path), mTransformTable)) {
+                rewrittenCount++;
+            }
+        }
+        return rewrittenCount;
+    }
+}
@@ -0,0 +1,77 @@
+package com.kezong.fataar;
+
+import org.gradle.api.Project;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Re-bundle an aar in place by {@link AarReBundler}: the manifest is replaced, an R jar is added
+ * and the compressed assets are stored. The aar is restored before every invocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ReBundleAarBenchmark {
+
+    @Param({"1000", "10000"})
+    public int classCount;
+
+    @Param({"10", "200"})
+    public int assetCount;
+
+    private File mWorkDir;
+
+    private File mOriginalAar;
+
+    private File mAar;
+
+    private AarReBundler mReBundler;
+
+    private Project mProject;
+
+    @Setup
+    public void setup() throws IOException {
+        mWorkDir = Files.createTempDirectory("fat-aar-jmh").toFile();
+        mOriginalAar = new File(mWorkDir, "original.aar");
+        SyntheticAars.writeAar(mOriginalAar, SyntheticAars.TARGET_PACKAGE, classCount, 1000, assetCount);
+        File manifest = new File(mWorkDir, "merged/AndroidManifest.xml");
+        SyntheticAars.writeManifest(manifest, SyntheticAars.TARGET_PACKAGE);
+        File rJarDir = new File(mWorkDir, "r-jar");
+        SyntheticAars.writeClassesJar(new File(rJarDir, "r-classes.jar"), "com.kezong.lib", classCount / 10);
+
+        mProject = SyntheticAars.createProject(new File(mWorkDir, "project"));
+        mAar = new File(mWorkDir, "output/lib.aar");
+        mReBundler = new AarReBundler();
+        mReBundler.setStoredAssetExtensions(AarReBundler.DEFAULT_STORED_EXTENSIONS);
+        mReBundler.addEntries("AndroidManifest.xml", mProject.files(manifest));
+        mReBundler.addEntries("libs", mProject.files(rJarDir));
+    }
+
+    @Setup(Level.Invocation)
+    public void restoreAar() throws IOException {
+        SyntheticAars.copy(mOriginalAar, mAar);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        SyntheticAars.delete(mWorkDir);
+    }
+
+    @Benchmark
+    public void reBundle() throws IOException {
+        mReBundler.reBundle(mAar, mProject.getLogger(), new File(mWorkDir, "metrics"));
+    }
+}
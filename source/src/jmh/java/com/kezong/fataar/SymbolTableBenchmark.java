@@ -0,0 +1,71 @@
+package com.kezong.fataar;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Symbol parsing of the R classes generation, which replaced RClassesGenerate:
+ * the local symbol file of the module, and R.txt of an aar while it is indexed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SymbolTableBenchmark {
+
+    @Param({"1000", "20000", "100000"})
+    public int symbolCount;
+
+    private File mWorkDir;
+
+    private File mLocalDefinition;
+
+    private File mSymbols;
+
+    private File mAarFolder;
+
+    @Setup
+    public void setup() throws IOException {
+        mWorkDir = Files.createTempDirectory("fat-aar-jmh").toFile();
+        mLocalDefinition = new File(mWorkDir, "R-def.txt");
+        mSymbols = new File(mWorkDir, "R.txt");
+        SyntheticAars.writeLocalDefinition(mLocalDefinition, symbolCount);
+        SyntheticAars.writeSymbols(mSymbols, symbolCount);
+
+        mAarFolder = new File(mWorkDir, "exploded");
+        SyntheticAars.writeSymbols(new File(mAarFolder, "R.txt"), symbolCount);
+        SyntheticAars.writeManifest(new File(mAarFolder, "AndroidManifest.xml"), "com.kezong.lib");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        SyntheticAars.delete(mWorkDir);
+    }
+
+    @Benchmark
+    public RSymbolTable parseLocalDefinition() throws IOException {
+        return RSymbolTable.parse(mLocalDefinition);
+    }
+
+    @Benchmark
+    public RSymbolTable parseSymbols() throws IOException {
+        return RSymbolTable.parse(mSymbols);
+    }
+
+    @Benchmark
+    public AarIndex createIndex() throws IOException {
+        return AarIndex.create(mAarFolder, Arrays.asList("AndroidManifest.xml", "R.txt"));
+    }
+}
@@ -0,0 +1,247 @@
+package com.kezong.fataar;
+
+import org.gradle.api.Project;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates the inputs of the benchmarks: aars, class directories, symbol files and manifests
+ * with configurable class counts, symbol counts and package counts.
+ * <p>
+ * The content is derived from the counts only, so every run of a benchmark sees the same files.
+ */
+final class SyntheticAars {
+
+    static final String TARGET_PACKAGE = "com.kezong.demo";
+
+    private static final String[] RESOURCE_TYPES = {"string", "layout", "drawable", "id", "color", "dimen", "attr"};
+
+    private SyntheticAars() {
+    }
+
+    /**
+     * @return com.kezong.lib0, com.kezong.lib1 ...
+     */
+    static List<String> packageNames(int packageCount) {
+        List<String> packageNames = new ArrayList<>();
+        for (int i = 0; i < packageCount; i++) {
+            packageNames.add("com.kezong.lib" + i);
+        }
+        return packageNames;
+    }
+
+    /**
+     * Write classes of the package into the folder. Every other class references R$string of one of
+     * the library packages, the others reference nothing, as the classes of a real module.
+     * @param libraryPackages the packages of R classes to reference, in dot form
+     * @return relative paths of the classes
+     */
+    static List<String> writeClasses(File folder, String packageName, int classCount, List<String> libraryPackages)
+            throws IOException {
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < classCount; i++) {
+            String internalName = packageName.replace('.', '/') + "/Class" + i;
+            String referencedPackage = i % 2 == 0 && !libraryPackages.isEmpty()
+                    ? libraryPackages.get(i / 2 % libraryPackages.size()) : null;
+            File file = new File(folder, internalName + ".class");
+            Files.createDirectories(file.getParentFile().toPath());
+            Files.write(file.toPath(), generateClass(internalName, referencedPackage));
+            paths.add(internalName + ".class");
+        }
+        return paths;
+    }
+
+    /**
+     * A class with a constructor and a method reading a field of R$string,
+     * the method also has a string constant and a call, so the constant pool has the common tags.
+     * @param referencedPackage nullable, the class references no R class if null
+     */
+    static byte[] generateClass(String internalName, String referencedPackage) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, internalName, null, "java/lang/Object", null);
+
+        MethodVisitor constructor = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        constructor.visitCode();
+        constructor.visitVarInsn(Opcodes.ALOAD, 0);
+        constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        constructor.visitInsn(Opcodes.RETURN);
+        constructor.visitMaxs(0, 0);
+        constructor.visitEnd();
+
+        MethodVisitor method = cw.visitMethod(Opcodes.ACC_PUBLIC, "describe", "()Ljava/lang/String;", null, null);
+        method.visitCode();
+        method.visitLdcInsn(internalName);
+        if (referencedPackage != null) {
+            method.visitFieldInsn(Opcodes.GETSTATIC, referencedPackage.replace('.', '/') + "/R$string", "app_name", "I");
+            method.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/String", "valueOf", "(I)Ljava/lang/String;", false);
+            method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/String", "concat",
+                    "(Ljava/lang/String;)Ljava/lang/String;", false);
+        }
+        method.visitInsn(Opcodes.ARETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    static void writeClassesJar(File jar, String packageName, int classCount) throws IOException {
+        Files.createDirectories(jar.getParentFile().toPath());
+        try (ZipOutputStream outputStream = new ZipOutputStream(Files.newOutputStream(jar.toPath()))) {
+            List<String> libraryPackages = new ArrayList<>();
+            libraryPackages.add(packageName);
+            for (int i = 0; i < classCount; i++) {
+                String internalName = packageName.replace('.', '/') + "/Class" + i;
+                String referencedPackage = i % 2 == 0 ? packageName : null;
+                outputStream.putNextEntry(new ZipEntry(internalName + ".class"));
+                outputStream.write(generateClass(internalName, referencedPackage));
+                outputStream.closeEntry();
+            }
+        }
+    }
+
+    /**
+     * R.txt of an aar, symbols are spread over the common resource types, every 50th symbol is a styleable.
+     */
+    static void writeSymbols(File file, int symbolCount) throws IOException {
+        Files.createDirectories(file.getParentFile().toPath());
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            for (int i = 0; i < symbolCount; i++) {
+                if (i % 50 == 49) {
+                    writer.write("int[] styleable Styleable" + i + " { 0x7f010000, 0x7f010001 }\n");
+                    writer.write("int styleable Styleable" + i + "_android_text 0\n");
+                    continue;
+                }
+                String type = RESOURCE_TYPES[i % RESOURCE_TYPES.length];
+                writer.write("int " + type + " " + type + "_" + i + " 0x7f" + String.format("%06x", i) + "\n");
+            }
+        }
+    }
+
+    /**
+     * R-def.txt of the module, which defines the same names as {@link #writeSymbols}.
+     */
+    static void writeLocalDefinition(File file, int symbolCount) throws IOException {
+        Files.createDirectories(file.getParentFile().toPath());
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            writer.write("R_DEF: Internal format may change without notice\n");
+            writer.write("local\n");
+            for (int i = 0; i < symbolCount; i++) {
+                if (i % 50 == 49) {
+                    writer.write("styleable Styleable" + i + " android:text\n");
+                    continue;
+                }
+                String type = RESOURCE_TYPES[i % RESOURCE_TYPES.length];
+                writer.write(type + " " + type + "_" + i + "\n");
+            }
+        }
+    }
+
+    /**
+     * A library manifest with an activity, a service and permissions, named after the package,
+     * so the manifests of different libraries do not conflict.
+     */
+    static void writeManifest(File file, String packageName) throws IOException {
+        Files.createDirectories(file.getParentFile().toPath());
+        String content = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n"
+                + "<manifest xmlns:android=\"http://schemas.android.com/apk/res/android\"\n"
+                + "    package=\"" + packageName + "\">\n"
+                + "    <uses-permission android:name=\"android.permission.INTERNET\" />\n"
+                + "    <uses-permission android:name=\"" + packageName + ".permission.ACCESS\" />\n"
+                + "    <application>\n"
+                + "        <activity android:name=\"" + packageName + ".MainActivity\" />\n"
+                + "        <service android:name=\"" + packageName + ".SyncService\" android:exported=\"false\" />\n"
+                + "        <meta-data android:name=\"" + packageName + ".version\" android:value=\"1\" />\n"
+                + "    </application>\n"
+                + "</manifest>\n";
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * An aar with manifest, classes.jar, a local jar, R.txt, res, assets and proguard.txt.
+     * @param assetCount count of the png assets of 16KB random bytes, which are already compressed
+     */
+    static void writeAar(File aar, String packageName, int classCount, int symbolCount, int assetCount)
+            throws IOException {
+        File workDir = Files.createTempDirectory("fat-aar-synthetic").toFile();
+        try {
+            writeManifest(new File(workDir, "AndroidManifest.xml"), packageName);
+            writeClassesJar(new File(workDir, "classes.jar"), packageName, classCount);
+            writeClassesJar(new File(workDir, "libs/local.jar"), packageName + ".local", Math.max(1, classCount / 10));
+            writeSymbols(new File(workDir, "R.txt"), symbolCount);
+
+            Files.createDirectories(new File(workDir, "res/values").toPath());
+            Files.write(new File(workDir, "res/values/values.xml").toPath(),
+                    ("<resources><string name=\"app_name\">" + packageName + "</string></resources>\n")
+                            .getBytes(StandardCharsets.UTF_8));
+            Files.write(new File(workDir, "proguard.txt").toPath(),
+                    ("-keep class " + packageName + ".** { *; }\n").getBytes(StandardCharsets.UTF_8));
+            Random random = new Random(packageName.hashCode());
+            for (int i = 0; i < assetCount; i++) {
+                byte[] bytes = new byte[16 * 1024];
+                random.nextBytes(bytes);
+                File asset = new File(workDir, "assets/image" + i + ".png");
+                Files.createDirectories(asset.getParentFile().toPath());
+                Files.write(asset.toPath(), bytes);
+            }
+            zip(workDir, aar);
+        } finally {
+            delete(workDir);
+        }
+    }
+
+    static void zip(File folder, File zip) throws IOException {
+        Files.createDirectories(zip.getParentFile().toPath());
+        Path folderPath = folder.toPath();
+        try (ZipOutputStream outputStream = new ZipOutputStream(Files.newOutputStream(zip.toPath()));
+             Stream<Path> files = Files.walk(folderPath)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile).sorted()::iterator) {
+                outputStream.putNextEntry(new ZipEntry(folderPath.relativize(file).toString().replace(File.separatorChar, '/')));
+                Files.copy(file, outputStream);
+                outputStream.closeEntry();
+            }
+        }
+    }
+
+    static void copy(File source, File target) throws IOException {
+        Files.createDirectories(target.getParentFile().toPath());
+        try (OutputStream outputStream = Files.newOutputStream(target.toPath())) {
+            Files.copy(source.toPath(), outputStream);
+        }
+    }
+
+    /**
+     * A project to create the tasks in, the task actions are called directly.
+     */
+    static Project createProject(File projectDir) {
+        return ProjectBuilder.builder().withProjectDir(projectDir).build();
+    }
+
+    static void delete(File file) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(file.toPath())) {
+            for (Path path : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
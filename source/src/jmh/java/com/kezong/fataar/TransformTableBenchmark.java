@@ -0,0 +1,39 @@
+package com.kezong.fataar;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link RClassesTransform#buildTransformTable} is called once per transform run, and once per class
+ * loader of the instrumentation on AGP 7.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TransformTableBenchmark {
+
+    @Param({"10", "100", "500"})
+    public int packageCount;
+
+    private List<String> mPackageNames;
+
+    @Setup
+    public void setup() {
+        mPackageNames = SyntheticAars.packageNames(packageCount);
+    }
+
+    @Benchmark
+    public Map<String, String> buildTransformTable() {
+        return RClassesTransform.buildTransformTable(SyntheticAars.TARGET_PACKAGE, mPackageNames);
+    }
+}
@@ -9,37 +9,59 @@ import org.gradle.api.Project;
  */
 class DirectoryManager {
 
-    private static final String RE_BUNDLE_FOLDER = "aar_rebundle";
-
     private static final String INTERMEDIATES_TEMP_FOLDER = "fat-aar";
 
-    private static Project sProject;
+    /**
+     * {@link RClassesIndex} of {@link RClassesTransform}, in a folder per variant
+     */
+    static File getTransformRIndexDirectory(Project project) {
+        return project.file("${project.getBuildDir()}/intermediates/${INTERMEDIATES_TEMP_FOLDER}/transform_r_index")
+    }
+
+    /**
+     * {@link TaskMetrics} of {@link RClassesTransform}, in a folder per variant
+     */
+    static File getTransformRMetricsDirectory(Project project) {
+        return project.file("${project.getBuildDir()}/tmp/${INTERMEDIATES_TEMP_FOLDER}/transform_r_metrics")
+    }
+
+    static File getRJarDirectory(Project project, LibraryVariant variant) {
+        return project.file("${project.getBuildDir()}/intermediates/${INTERMEDIATES_TEMP_FOLDER}/r-jar/${variant.name}")
+    }
+
+    static File getMergeClassDirectory(Project project, LibraryVariant variant) {
+        return project.file("${project.getBuildDir()}/intermediates/${INTERMEDIATES_TEMP_FOLDER}/merge_classes/${variant.name}")
+    }
+
+    static File getMergeClassManifest(Project project, LibraryVariant variant) {
+        return project.file("${project.getBuildDir()}/intermediates/${INTERMEDIATES_TEMP_FOLDER}/merge_classes_manifest/${variant.name}/entries.txt")
+    }
 
-    static void attach(Project project) {
-        sProject = project;
+    static File getCopiedClassesManifest(Project project, LibraryVariant variant) {
+        return project.file("${project.getBuildDir()}/intermediates/${INTERMEDIATES_TEMP_FOLDER}/copied_classes_manifest/${variant.name}/entries.txt")
     }
 
-    static File getReBundleDirectory(LibraryVariant variant) {
-        return sProject.file("${sProject.getBuildDir()}/outputs/${RE_BUNDLE_FOLDER}/${variant.name}")
+    static File getMergeJarsDirectory(Project project, LibraryVariant variant) {
+        return project.file("${project.getBuildDir()}/intermediates/${INTERMEDIATES_TEMP_FOLDER}/merge_jars/${variant.name}")
     }
 
-    static File getRJavaDirectory(LibraryVariant variant) {
-        return sProject.file("${sProject.getBuildDir()}/intermediates/${INTERMEDIATES_TEMP_FOLDER}/r/${variant.name}")
+    static File getMergedManifestFile(Project project, LibraryVariant variant) {
+        return project.file("${project.getBuildDir()}/intermediates/${INTERMEDIATES_TEMP_FOLDER}/merged_manifest/${variant.name}/AndroidManifest.xml")
     }
 
-    static File getRClassDirectory(LibraryVariant variant) {
-        return sProject.file("${sProject.getBuildDir()}/intermediates/${INTERMEDIATES_TEMP_FOLDER}/r-class/${variant.name}")
+    static File getDedupResDirectory(Project project, LibraryVariant variant) {
+        return project.file("${project.getBuildDir()}/intermediates/${INTERMEDIATES_TEMP_FOLDER}/dedup_res/${variant.name}")
     }
 
-    static File getRJarDirectory(LibraryVariant variant) {
-        return sProject.file("${sProject.getBuildDir()}/outputs/${RE_BUNDLE_FOLDER}/${variant.name}/libs")
+    static File getDedupAssetsDirectory(Project project, LibraryVariant variant) {
+        return project.file("${project.getBuildDir()}/intermediates/${INTERMEDIATES_TEMP_FOLDER}/dedup_assets/${variant.name}")
     }
 
-    static File getMergeClassDirectory(LibraryVariant variant) {
-        return sProject.file("${sProject.getBuildDir()}/intermediates/${INTERMEDIATES_TEMP_FOLDER}/merge_classes/${variant.name}")
+    static File getDedupJniDirectory(Project project, LibraryVariant variant) {
+        return project.file("${project.getBuildDir()}/intermediates/${INTERMEDIATES_TEMP_FOLDER}/dedup_jni/${variant.name}")
     }
 
-    static File getKotlinMetaDirectory(LibraryVariant variant) {
-        return sProject.file("${sProject.getBuildDir()}/tmp/kotlin-classes/${variant.name}/META-INF")
+    static File getKotlinMetaDirectory(Project project, LibraryVariant variant) {
+        return project.file("${project.getBuildDir()}/tmp/kotlin-classes/${variant.name}/META-INF")
     }
 }
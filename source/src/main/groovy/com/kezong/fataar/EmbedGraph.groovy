@@ -0,0 +1,151 @@
+package com.kezong.fataar
+
+import com.android.build.gradle.api.LibraryVariant
+import com.android.builder.model.ProductFlavor
+import org.gradle.api.Project
+import org.gradle.api.artifacts.ResolvedArtifact
+import org.gradle.api.plugins.ExtraPropertiesExtension
+import org.gradle.api.tasks.TaskProvider
+
+/**
+ * Indexes of the embed dependency graph, shared by all projects applying fat-aar in a build,
+ * so the lookups of a dependency do not scan all projects or all variants.
+ * <ul>
+ *     <li>module name -> project, built once from rootProject.allprojects</li>
+ *     <li>project -> its library variants by name and by flavor, built once per project</li>
+ * </ul>
+ * Module name -> artifact is per configuration, see {@link #indexArtifacts}.
+ */
+class EmbedGraph {
+
+    private static final String EXTRA_PROPERTY_NAME = "fatAarEmbedGraph"
+
+    private final Project mRootProject
+
+    private Map<String, Project> mProjects
+
+    private final Map<String, VariantIndex> mVariantIndexes = new HashMap<>()
+
+    private EmbedGraph(Project rootProject) {
+        mRootProject = rootProject
+    }
+
+    /**
+     * @return the graph of the build, kept in the extra properties of root project
+     */
+    static EmbedGraph of(Project project) {
+        ExtraPropertiesExtension extraProperties = project.rootProject.extensions.extraProperties
+        Object graph = extraProperties.has(EXTRA_PROPERTY_NAME) ? extraProperties.get(EXTRA_PROPERTY_NAME) : null
+        if (graph instanceof EmbedGraph) {
+            return graph
+        }
+        // not shared if the plugin is loaded by another class loader
+        EmbedGraph embedGraph = new EmbedGraph(project.rootProject)
+        if (graph == null) {
+            extraProperties.set(EXTRA_PROPERTY_NAME, embedGraph)
+        }
+        return embedGraph
+    }
+
+    /**
+     * @return module name -> artifact, the first one wins if names conflict
+     */
+    static Map<String, ResolvedArtifact> indexArtifacts(Collection<ResolvedArtifact> artifacts) {
+        Map<String, ResolvedArtifact> index = new LinkedHashMap<>()
+        artifacts.each { artifact ->
+            index.putIfAbsent(artifact.moduleVersion.id.name, artifact)
+        }
+        return index
+    }
+
+    /**
+     * @return the project named as the module, nullable
+     */
+    Project findProject(String moduleName) {
+        if (mProjects == null) {
+            mProjects = new HashMap<>()
+            mRootProject.allprojects.each { project ->
+                mProjects.putIfAbsent(project.name, project)
+            }
+        }
+        return mProjects.get(moduleName)
+    }
+
+    /**
+     * The bundle task of the variant of project which matches the variant of the embedding module:
+     * the variant with the same name, the variant named as the build type, or the variant of the flavor
+     * selected by missingDimensionStrategy. The first of them in the variant order wins.
+     * The result depends on the build type and strategies of the embedding variant, so it is not cached,
+     * only the variant index of the project is.
+     * @return nullable
+     */
+    TaskProvider findBundleTask(Project project, LibraryVariant variant) {
+        VariantIndex index = getVariantIndex(project)
+        List<Integer> candidates = new ArrayList<>()
+        addCandidate(candidates, index.mByName.get(variant.name))
+        addCandidate(candidates, index.mByName.get(variant.buildType.name))
+        ProductFlavor flavor = variant.productFlavors.isEmpty() ? variant.mergedFlavor : variant.productFlavors.first()
+        try {
+            flavor.missingDimensionStrategies.each { entry ->
+                String toFlavor = entry.getValue().getFallbacks().first()
+                addCandidate(candidates, index.mByFlavor.get(flavorKey(entry.getKey(), toFlavor, variant.buildType.name)))
+            }
+        } catch (Exception ignore) {
+        }
+        Collections.sort(candidates)
+
+        for (Integer candidate : candidates) {
+            try {
+                return VersionAdapter.getBundleTaskProvider(project, index.mNames.get(candidate))
+            } catch (Exception ignore) {
+            }
+        }
+        return null
+    }
+
+    private static void addCandidate(List<Integer> candidates, Integer candidate) {
+        if (candidate != null && !candidates.contains(candidate)) {
+            candidates.add(candidate)
+        }
+    }
+
+    private VariantIndex getVariantIndex(Project project) {
+        VariantIndex index = mVariantIndexes.get(project.path)
+        if (index != null) {
+            return index
+        }
+        index = new VariantIndex()
+        project.android.libraryVariants.each { LibraryVariant subVariant ->
+            int position = index.mNames.size()
+            index.mNames.add(subVariant.name)
+            index.mByName.putIfAbsent(subVariant.name, position)
+            ProductFlavor subFlavor = subVariant.productFlavors.isEmpty() ?
+                    subVariant.mergedFlavor : subVariant.productFlavors.first()
+            index.mByFlavor.putIfAbsent(flavorKey(subFlavor.dimension, subFlavor.name, subVariant.buildType.name), position)
+        }
+        // the variants may not be created yet, index again next time
+        if (!index.mNames.isEmpty()) {
+            mVariantIndexes.put(project.path, index)
+        }
+        return index
+    }
+
+    private static String flavorKey(String dimension, String flavorName, String buildType) {
+        return dimension + ":" + flavorName + ":" + buildType
+    }
+
+    private static class VariantIndex {
+
+        /**
+         * variant names in the order of android.libraryVariants
+         */
+        final List<String> mNames = new ArrayList<>()
+
+        final Map<String, Integer> mByName = new HashMap<>()
+
+        /**
+         * dimension:flavor:buildType -> position
+         */
+        final Map<String, Integer> mByFlavor = new HashMap<>()
+    }
+}
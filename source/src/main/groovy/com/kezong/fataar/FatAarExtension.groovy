@@ -25,4 +25,54 @@ class FatAarExtension {
      * @since 1.3.0
      */
     boolean transitive = false
+
+    /**
+     * Used when the embedded libraries contain the same class with different content.
+     * Identical classes are merged only once regardless of the policy.
+     * Default value is WARN, the class of the later library wins.
+     * Also applied to the local jars with the same file name but different content, if consolidateJars is disabled.
+     * @since 1.3.9
+     */
+    DuplicatePolicy duplicateClassPolicy = DuplicatePolicy.WARN
+
+    /**
+     * If consolidateJars is true, local jars of the embedded aars and the embedded jars are merged
+     * into one jar in libs/, identical entries are written once. Only used when minify is disabled.
+     * Default value is false, the jars are copied into libs/ one by one.
+     * @since 1.3.9
+     */
+    boolean consolidateJars = false
+
+    /**
+     * Used when the embedded aars contain the same resource, asset or native library file with different content,
+     * values files excluded.
+     * Identical files are merged only once regardless of the policy.
+     * Default value is WARN, the file of the later aar wins.
+     * @since 1.3.9
+     */
+    DuplicatePolicy duplicateResourcePolicy = DuplicatePolicy.WARN
+
+    /**
+     * ABIs of the native libraries to embed, e.g. ['armeabi-v7a', 'arm64-v8a'].
+     * Only applied to the jni folders of the embedded aars.
+     * Default value is empty, all ABIs are embedded.
+     * @since 1.3.9
+     */
+    Set<String> abiFilters = []
+
+    /**
+     * Assets with these extensions are already compressed, they are stored without compression
+     * in the re-bundled aar. Set empty to keep the compression of bundle task.
+     * @since 1.3.9
+     */
+    Set<String> storedAssetExtensions = new HashSet<>(AarReBundler.DEFAULT_STORED_EXTENSIONS)
+
+    /**
+     * The consumer proguard rules of the embedded aars are always deduplicated.
+     * If collapseProguardRules is true, -keepattributes are merged into one rule, and the classes of
+     * -dontwarn and -dontnote which are covered by a wildcard such as com.foo.** are removed.
+     * Default value is false
+     * @since 1.3.9
+     */
+    boolean collapseProguardRules = false
 }
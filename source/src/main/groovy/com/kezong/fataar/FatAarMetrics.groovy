@@ -0,0 +1,67 @@
+package com.kezong.fataar
+
+import org.gradle.api.Project
+import org.gradle.api.provider.Provider
+import org.gradle.build.event.BuildEventsListenerRegistry
+
+import javax.inject.Inject
+
+/**
+ * Register {@link FatAarMetricsService} and tell it which tasks belong to which stage and variant.
+ * The report is written to build/reports/fat-aar/<variant>.json.
+ * <p>
+ * Created by {@code project.objects.newInstance}, which injects the listener registry. The registry only exists
+ * on gradle 6.1+, so it is injected here rather than into the plugin, which is loaded by any gradle.
+ */
+class FatAarMetrics {
+
+    private final Project mProject
+
+    private final BuildEventsListenerRegistry mListenerRegistry
+
+    private final Map<String, String> mStages = new HashMap<>()
+
+    private final Map<String, Set<String>> mVariants = new HashMap<>()
+
+    private final Map<String, String> mMetricsFiles = new HashMap<>()
+
+    @Inject
+    FatAarMetrics(Project project, BuildEventsListenerRegistry listenerRegistry) {
+        mProject = project
+        mListenerRegistry = listenerRegistry
+    }
+
+    void register() {
+        Map<String, String> stages = mStages
+        Map<String, Set<String>> variants = mVariants
+        Map<String, String> metricsFiles = mMetricsFiles
+        Provider<FatAarMetricsService> service = mProject.gradle.sharedServices.registerIfAbsent(
+                "fatAarMetrics" + mProject.path, FatAarMetricsService) {
+            parameters.reportsDir.set(new File(mProject.buildDir, "reports/fat-aar"))
+            // the stages are added after evaluate, the providers are read when the service is created
+            parameters.stages.set(mProject.provider { stages })
+            parameters.variants.set(mProject.provider {
+                variants.collectEntries { path, names -> [path, names.join(",")] }
+            })
+            parameters.metricsFiles.set(mProject.provider { metricsFiles })
+        }
+        mListenerRegistry.onTaskCompletion(service)
+    }
+
+    /**
+     * @param taskName the task may be registered by AGP, recorded only if it runs
+     */
+    void addStage(String variantName, String stage, String taskName) {
+        addStage(variantName, stage, taskName, new File(mProject.buildDir, "tmp/${taskName}"))
+    }
+
+    /**
+     * @param metricsDir where the task writes {@link TaskMetrics}, for the work which is not a task of fat-aar
+     */
+    void addStage(String variantName, String stage, String taskName, File metricsDir) {
+        String taskPath = mProject.path == ":" ? ":" + taskName : mProject.path + ":" + taskName
+        mStages.put(taskPath, stage)
+        mVariants.computeIfAbsent(taskPath) { new TreeSet<>() }.add(variantName)
+        mMetricsFiles.put(taskPath, new File(metricsDir, TaskMetrics.FILE_NAME).absolutePath)
+    }
+}
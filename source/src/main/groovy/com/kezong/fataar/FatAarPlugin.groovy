@@ -5,8 +5,14 @@ import org.gradle.api.Plugin
 import org.gradle.api.Project
 import org.gradle.api.ProjectConfigurationException
 import org.gradle.api.artifacts.Configuration
+import org.gradle.api.artifacts.ProjectDependency
 import org.gradle.api.artifacts.ResolvedArtifact
 import org.gradle.api.artifacts.ResolvedDependency
+import org.gradle.api.provider.Provider
+import org.gradle.api.tasks.TaskProvider
+
+import java.util.concurrent.ExecutorService
+import java.util.function.Supplier
 
 /**
  * plugin entry
@@ -25,28 +31,74 @@ class FatAarPlugin implements Plugin<Project> {
 
     private RClassesTransform transform
 
+    private RClassesInstrumentation instrumentation
+
+    private MergedManifestTransform manifestTransform
+
+    private FatAarMetrics metrics
+
     private final Collection<Configuration> embedConfigurations = new ArrayList<>()
 
+    private final Map<File, TaskProvider> explodeTasks = new HashMap<>()
+
     @Override
     void apply(Project project) {
         this.project = project
         checkAndroidPlugin()
-        FatUtils.attach(project)
-        DirectoryManager.attach(project)
         project.extensions.create(FatAarExtension.NAME, FatAarExtension)
         createConfigurations()
         registerTransform()
+        registerManifestTransform()
+        registerMetrics()
         project.afterEvaluate {
             doAfterEvaluate()
         }
     }
 
     private registerTransform() {
-        transform = new RClassesTransform(project)
+        if (RClassesInstrumentation.isSupported()) {
+            // AGP 7+ rewrites classes per class in its own pipeline, no extra transform stage.
+            instrumentation = new RClassesInstrumentation(project)
+            instrumentation.register()
+            return
+        }
+        transform = new RClassesTransform(project.files(), DirectoryManager.getTransformRIndexDirectory(project),
+                DirectoryManager.getTransformRMetricsDirectory(project), createExecutorSupplier())
         // register in project.afterEvaluate is invalid.
         project.android.registerTransform(transform)
     }
 
+    private void registerManifestTransform() {
+        if (MergedManifestTransform.isSupported()) {
+            manifestTransform = new MergedManifestTransform(project)
+            manifestTransform.register()
+        }
+    }
+
+    /**
+     * @return the pool shared by all projects of the build, null if build services are not supported
+     */
+    private Supplier<ExecutorService> createExecutorSupplier() {
+        if (!FatUtils.isBuildServiceSupported(project)) {
+            return null
+        }
+        Provider<FatAarWorkerPool> workerPool = FatUtils.getWorkerPool(project)
+        return { workerPool.get().executor } as Supplier<ExecutorService>
+    }
+
+    private void registerMetrics() {
+        if (FatUtils.isBuildServiceSupported(project)) {
+            metrics = project.objects.newInstance(FatAarMetrics, project)
+            metrics.register()
+        }
+    }
+
+    /**
+     * The embed configurations which declare dependencies are resolved here, at configuration time,
+     * even if no task of the variant runs. The explode task of each aar, the task inputs of each aar and
+     * the dependencies on the bundle tasks of flavor artifacts are still created from the resolved artifacts.
+     * Only the configurations which declare nothing are skipped.
+     */
     private void doAfterEvaluate() {
         embedConfigurations.each {
             if (project.fataar.transitive) {
@@ -55,23 +107,30 @@ class FatAarPlugin implements Plugin<Project> {
         }
 
         project.android.libraryVariants.all { variant ->
-            Collection<ResolvedArtifact> artifacts = new ArrayList()
-            Collection<ResolvedDependency> firstLevelDependencies = new ArrayList<>()
-            embedConfigurations.each { configuration ->
-                if (configuration.name == CONFIG_NAME
+            Collection<Configuration> configurations = embedConfigurations.findAll { configuration ->
+                (configuration.name == CONFIG_NAME
                         || configuration.name == variant.getBuildType().name + CONFIG_SUFFIX
                         || configuration.name == variant.getFlavorName() + CONFIG_SUFFIX
-                        || configuration.name == variant.name + CONFIG_SUFFIX) {
-                    Collection<ResolvedArtifact> resolvedArtifacts = resolveArtifacts(configuration)
-                    artifacts.addAll(resolvedArtifacts)
-                    artifacts.addAll(dealUnResolveArtifacts(configuration, variant as LibraryVariant, resolvedArtifacts))
-                    firstLevelDependencies.addAll(configuration.resolvedConfiguration.firstLevelModuleDependencies)
-                }
+                        || configuration.name == variant.name + CONFIG_SUFFIX)
+                        // the configurations which declare nothing are not resolved
+                        && !configuration.allDependencies.isEmpty()
+            }
+            if (configurations.isEmpty()) {
+                return
+            }
+
+            Collection<ResolvedArtifact> artifacts = new ArrayList()
+            Collection<ResolvedDependency> firstLevelDependencies = new ArrayList<>()
+            configurations.each { configuration ->
+                Collection<ResolvedArtifact> resolvedArtifacts = resolveArtifacts(configuration)
+                artifacts.addAll(resolvedArtifacts)
+                artifacts.addAll(dealUnResolveArtifacts(configuration, variant as LibraryVariant, resolvedArtifacts))
+                firstLevelDependencies.addAll(configuration.resolvedConfiguration.firstLevelModuleDependencies)
             }
 
             if (!artifacts.isEmpty()) {
-                def processor = new VariantProcessor(project, variant)
-                processor.processVariant(artifacts, firstLevelDependencies, transform)
+                def processor = new VariantProcessor(project, variant, explodeTasks, metrics)
+                processor.processVariant(artifacts, firstLevelDependencies, transform, instrumentation, manifestTransform)
             }
         }
     }
@@ -113,10 +172,42 @@ class FatAarPlugin implements Plugin<Project> {
     private void createConfiguration(Configuration embedConf) {
         embedConf.visible = false
         embedConf.transitive = false
-        project.gradle.addListener(new EmbedResolutionListener(project, embedConf))
+        embedConf.withDependencies { dependencies ->
+            dependencies.each { dependency ->
+                if (dependency instanceof ProjectDependency && dependency.targetConfiguration == null) {
+                    dependency.targetConfiguration = "default"
+                }
+            }
+        }
+        addCompileOnlyDependencies(embedConf)
         embedConfigurations.add(embedConf)
     }
 
+    /**
+     * The purpose is to support the code hints.
+     * Dependencies are added lazily before compileOnly is resolved, no listener is registered on gradle.
+     */
+    private void addCompileOnlyDependencies(Configuration embedConf) {
+        String compileOnlyConfigName = "compileOnly"
+        if (embedConf.name.endsWith(CONFIG_SUFFIX)) {
+            compileOnlyConfigName = embedConf.name.substring(0, embedConf.name.length() - CONFIG_SUFFIX.length()) + "CompileOnly"
+        }
+        project.configurations.matching { it.name == compileOnlyConfigName }.all { Configuration compileOnly ->
+            compileOnly.withDependencies { dependencies ->
+                embedConf.dependencies.each { dependency ->
+                    if (dependency instanceof ProjectDependency) {
+                        // support that the module can be indexed in Android Studio 4.0.0
+                        ProjectDependency dependencyClone = dependency.copy()
+                        dependencyClone.targetConfiguration = null
+                        dependencies.add(dependencyClone)
+                    } else {
+                        dependencies.add(dependency)
+                    }
+                }
+            }
+        }
+    }
+
     private Collection<ResolvedArtifact> resolveArtifacts(Configuration configuration) {
         def set = new ArrayList()
         if (configuration != null) {
@@ -134,12 +225,9 @@ class FatAarPlugin implements Plugin<Project> {
 
     private Collection<ResolvedArtifact> dealUnResolveArtifacts(Configuration configuration, LibraryVariant variant, Collection<ResolvedArtifact> artifacts) {
         def artifactList = new ArrayList()
+        Map<String, ResolvedArtifact> artifactsByModule = EmbedGraph.indexArtifacts(artifacts)
         configuration.resolvedConfiguration.firstLevelModuleDependencies.each { dependency ->
-            def match = artifacts.any { artifact ->
-                dependency.moduleName == artifact.moduleVersion.id.name
-            }
-
-            if (!match) {
+            if (!artifactsByModule.containsKey(dependency.moduleName)) {
                 def flavorArtifact = FlavorArtifact.createFlavorArtifact(project, variant, dependency)
                 if (flavorArtifact != null) {
                     artifactList.add(flavorArtifact)
@@ -1,25 +1,25 @@
 package com.kezong.fataar
 
 import org.gradle.api.Project
+import org.gradle.api.logging.Logger
+import org.gradle.api.logging.Logging
+import org.gradle.api.provider.Provider
 
 class FatUtils {
 
-    private static Project sProject
-
-    def static attach(Project p) {
-        sProject = p
-    }
+    // Not bound to a project, so it can be used in task actions restored from configuration cache.
+    private static final Logger sLogger = Logging.getLogger(FatAarPlugin)
 
     def static logError(def msg) {
-        sProject.logger.error("[fat-aar]${msg}")
+        sLogger.error("[fat-aar]${msg}")
     }
 
     def static logInfo(def msg) {
-        sProject.logger.info("[fat-aar]${msg}")
+        sLogger.info("[fat-aar]${msg}")
     }
 
     def static logAnytime(def msg) {
-        sProject.println("[fat-aar]${msg}")
+        sLogger.lifecycle("[fat-aar]${msg}")
     }
 
     def static showDir(int indent, File file) throws IOException {
@@ -33,18 +33,24 @@ class FatUtils {
         }
     }
 
-    static void deleteEmptyDir(final File file) {
-        file.listFiles().each { x ->
-            if (x.isDirectory()) {
-                if (x.listFiles().size() == 0) {
-                    x.delete()
-                } else {
-                    deleteEmptyDir(x)
-                    if (x.listFiles().size() == 0) {
-                        x.delete()
-                    }
-                }
-            }
+    /**
+     * Build services and task events are available since gradle 6.1.
+     */
+    static boolean isBuildServiceSupported(Project project) {
+        return compareVersion(project.gradle.gradleVersion, "6.1") >= 0
+    }
+
+    /**
+     * @return the provider of {@link FatAarWorkerPool} shared by all projects of the build,
+     * null if build services are not supported
+     */
+    static Provider<?> getWorkerPool(Project project) {
+        if (!isBuildServiceSupported(project)) {
+            return null
+        }
+        int maxThreads = project.gradle.startParameter.maxWorkerCount
+        return project.gradle.sharedServices.registerIfAbsent("fatAarWorkerPool", FatAarWorkerPool) {
+            parameters.maxThreads.set(maxThreads)
         }
     }
 
@@ -120,28 +126,4 @@ class FatUtils {
         }
         return result
     }
-
-    def static mergeFiles(Collection<File> inputFiles, File output) {
-        if (inputFiles == null) {
-            return
-        }
-        // filter out any non-existent files
-        Collection<File> existingFiles = inputFiles.findAll { it ->
-            it.exists()
-        }
-
-        // no input? done.
-        if (existingFiles.isEmpty()) {
-            return
-        }
-
-        if (!output.exists()) {
-            output.createNewFile()
-        }
-
-        // otherwise put all the files together append to output file
-        for (File file in existingFiles) {
-            output.append("\n${file.getText("UTF-8")}\n")
-        }
-    }
-}
\ No newline at end of file
+}
@@ -1,7 +1,6 @@
 package com.kezong.fataar
 
 import com.android.build.gradle.api.LibraryVariant
-import com.android.builder.model.ProductFlavor
 import org.gradle.api.Project
 import org.gradle.api.Task
 import org.gradle.api.artifacts.ModuleVersionIdentifier
@@ -33,10 +32,11 @@ class FlavorArtifact {
     private static final String CLASS_DefaultResolvedArtifact = "org.gradle.api.internal.artifacts.DefaultResolvedArtifact"
 
     static ResolvedArtifact createFlavorArtifact(Project project, LibraryVariant variant, ResolvedDependency unResolvedArtifact) {
-        Project artifactProject = getArtifactProject(project, unResolvedArtifact)
+        EmbedGraph embedGraph = EmbedGraph.of(project)
+        Project artifactProject = embedGraph.findProject(unResolvedArtifact.moduleName)
         TaskProvider bundleProvider = null;
         try {
-            bundleProvider = getBundleTask(artifactProject, variant)
+            bundleProvider = embedGraph.findBundleTask(artifactProject, variant)
         } catch (Exception ignore) {
             FatUtils.logError("[$variant.name]Can not resolve :$unResolvedArtifact.moduleName")
             return null
@@ -120,15 +120,6 @@ class FlavorArtifact {
         }
     }
 
-    private static Project getArtifactProject(Project project, ResolvedDependency unResolvedArtifact) {
-        for (Project p : project.getRootProject().getAllprojects()) {
-            if (unResolvedArtifact.moduleName == p.name) {
-                return p
-            }
-        }
-        return null
-    }
-
     private static File createArtifactFile(Project project, Task bundle) {
         File output
         if (FatUtils.compareVersion(project.gradle.gradleVersion, "5.1") >= 0) {
@@ -139,55 +130,6 @@ class FlavorArtifact {
         return output
     }
 
-    private static TaskProvider getBundleTask(Project project, LibraryVariant variant) {
-        TaskProvider bundleTaskProvider = null
-        project.android.libraryVariants.find { subVariant ->
-            // 1. find same flavor
-            if (variant.name == subVariant.name) {
-                try {
-                    bundleTaskProvider = VersionAdapter.getBundleTaskProvider(project, subVariant.name as String)
-                    return true
-                } catch (Exception ignore) {
-                }
-            }
-
-            // 2. find buildType
-            ProductFlavor flavor = variant.productFlavors.isEmpty() ? variant.mergedFlavor : variant.productFlavors.first()
-            if (subVariant.name == variant.buildType.name) {
-                try {
-                    bundleTaskProvider = VersionAdapter.getBundleTaskProvider(project, subVariant.name as String)
-                    return true
-                } catch (Exception ignore) {
-                }
-            }
-
-            // 3. find missingStrategies
-            try {
-                flavor.missingDimensionStrategies.find { entry ->
-                    String toDimension = entry.getKey()
-                    String toFlavor = entry.getValue().getFallbacks().first()
-                    ProductFlavor subFlavor = subVariant.productFlavors.isEmpty() ?
-                            subVariant.mergedFlavor : subVariant.productFlavors.first()
-                    if (toDimension == subFlavor.dimension
-                            && toFlavor == subFlavor.name
-                            && variant.buildType.name == subVariant.buildType.name) {
-                        try {
-                            bundleTaskProvider = VersionAdapter.getBundleTaskProvider(project, subVariant.name as String)
-                            return true
-                        } catch (Exception ignore) {
-                        }
-                    }
-                }
-            } catch (Exception ignore) {
-
-            }
-
-            return bundleTaskProvider != null
-        }
-
-        return bundleTaskProvider
-    }
-
     private static TaskDependency createTaskDependency(Task bundleTask) {
         return new TaskDependency() {
             @Override
@@ -0,0 +1,67 @@
+package com.kezong.fataar
+
+import kotlin.jvm.functions.Function1
+import org.gradle.api.Project
+import org.gradle.api.tasks.TaskProvider
+
+/**
+ * Register {@link LibraryManifestMerger} as a transform of the merged manifest artifact of AGP 7+.
+ * So every consumer of the artifact sees the embedded components: the aar, the androidTest apk,
+ * and the projects which depend on this one as a project dependency.
+ * The embedded manifests are set later by {@link VariantProcessor}.
+ */
+class MergedManifestTransform {
+
+    private final Project mProject
+
+    private final Map<String, TaskProvider<LibraryManifestMerger>> mMergeTasks = new HashMap<>()
+
+    MergedManifestTransform(Project project) {
+        mProject = project
+    }
+
+    static boolean isSupported() {
+        return FatUtils.compareVersion(VersionAdapter.AGPVersion, "7.0.0") >= 0
+    }
+
+    /**
+     * androidComponents callbacks must be registered before the variants are created.
+     * A variant which embeds no aar gets its manifest copied unchanged.
+     */
+    void register() {
+        def androidComponents = mProject.extensions.getByName("androidComponents")
+        def mergedManifest = getMergedManifestArtifact()
+        androidComponents.onVariants(androidComponents.selector().all()) { variant ->
+            TaskProvider<LibraryManifestMerger> mergeTask = mProject.tasks.register(
+                    "merge${variant.name.capitalize()}Manifest", LibraryManifestMerger) {
+                setGradleVersion(mProject.getGradle().getGradleVersion())
+                setGradlePluginVersion(VersionAdapter.AGPVersion)
+            }
+            variant.artifacts.use(mergeTask)
+                    .wiredWithFiles({ it.mainManifest } as Function1, { it.mergedManifest } as Function1)
+                    .toTransform(mergedManifest)
+            mMergeTasks.put(variant.name, mergeTask)
+        }
+    }
+
+    /**
+     * @param variantName variant name
+     * @return the merge task registered for the variant
+     */
+    TaskProvider<LibraryManifestMerger> getMergeTask(String variantName) {
+        TaskProvider<LibraryManifestMerger> mergeTask = mMergeTasks.get(variantName)
+        if (mergeTask == null) {
+            throw new RuntimeException("Can not find manifest merge task of variant ${variantName}!")
+        }
+        return mergeTask
+    }
+
+    /**
+     * The plugin is compiled against AGP 4.2, which has no SingleArtifact yet.
+     */
+    private static Object getMergedManifestArtifact() {
+        Class<?> artifactClass = Class.forName('com.android.build.api.artifact.SingleArtifact$MERGED_MANIFEST',
+                true, MergedManifestTransform.classLoader)
+        return artifactClass.getField("INSTANCE").get(null)
+    }
+}
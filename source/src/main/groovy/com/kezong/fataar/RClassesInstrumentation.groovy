@@ -0,0 +1,71 @@
+package com.kezong.fataar
+
+import com.android.build.api.instrumentation.InstrumentationScope
+import org.gradle.api.Project
+import org.gradle.api.file.ConfigurableFileCollection
+import org.gradle.api.provider.Property
+
+/**
+ * Register {@link RClassesVisitorFactory} to the instrumentation pipeline of AGP 7+.
+ * Used instead of {@link RClassesTransform}, which is based on the deprecated Transform API.
+ */
+class RClassesInstrumentation {
+
+    private final Project mProject
+
+    private final Map<String, Property<String>> mTargetPackages = new HashMap<>()
+
+    private final Map<String, ConfigurableFileCollection> mLibraryIndexes = new HashMap<>()
+
+    RClassesInstrumentation(Project project) {
+        mProject = project
+    }
+
+    static boolean isSupported() {
+        return FatUtils.compareVersion(VersionAdapter.AGPVersion, "7.0.0") >= 0
+    }
+
+    /**
+     * androidComponents callbacks must be registered before the variants are created,
+     * the packages are set later by {@link VariantProcessor}.
+     */
+    void register() {
+        def androidComponents = mProject.extensions.getByName("androidComponents")
+        androidComponents.onVariants(androidComponents.selector().all()) { variant ->
+            if (!mProject.fataar.transformR) {
+                return
+            }
+            // AGP 7.2+ moves the method into variant.instrumentation
+            def instrumentation = variant.hasProperty("instrumentation") ? variant.instrumentation : variant
+            String variantName = variant.name
+            instrumentation.transformClassesWith(RClassesVisitorFactory, InstrumentationScope.PROJECT) { parameters ->
+                parameters.targetPackage.set(getTargetPackage(variantName))
+                parameters.libraryIndexes.from(getLibraryIndexes(variantName))
+            }
+        }
+    }
+
+    /**
+     * @param variantName variant name
+     * @param targetPackage main module's package name
+     */
+    void putTargetPackage(String variantName, String targetPackage) {
+        getTargetPackage(variantName).set(targetPackage)
+    }
+
+    /**
+     * @param variantName variant name
+     * @param indexes {@link AarIndex} files of the embedded aars, should carry the explode tasks as dependencies
+     */
+    void addLibraryIndexes(String variantName, Object indexes) {
+        getLibraryIndexes(variantName).from(indexes)
+    }
+
+    private Property<String> getTargetPackage(String variantName) {
+        return mTargetPackages.computeIfAbsent(variantName) { mProject.objects.property(String) }
+    }
+
+    private ConfigurableFileCollection getLibraryIndexes(String variantName) {
+        return mLibraryIndexes.computeIfAbsent(variantName) { mProject.files() }
+    }
+}
@@ -7,17 +7,13 @@ import org.gradle.api.Project
 import org.gradle.api.Task
 import org.gradle.api.artifacts.ResolvedArtifact
 import org.gradle.api.artifacts.ResolvedDependency
+import org.gradle.api.file.FileTree
 import org.gradle.api.internal.artifacts.ResolvableDependency
 import org.gradle.api.internal.tasks.CachingTaskDependencyResolveContext
-import org.gradle.api.tasks.Copy
+import org.gradle.api.provider.Provider
 import org.gradle.api.tasks.PathSensitivity
 import org.gradle.api.tasks.TaskDependency
 import org.gradle.api.tasks.TaskProvider
-import org.gradle.api.tasks.bundling.Zip
-
-import java.nio.file.Files
-import java.nio.file.Path
-import java.nio.file.Paths
 
 /**
  * Core
@@ -33,16 +29,26 @@ class VariantProcessor {
 
     private Collection<File> mJarFiles = new ArrayList<>()
 
-    private Collection<Task> mExplodeTasks = new ArrayList<>()
+    private Collection<TaskProvider> mExplodeTasks = new ArrayList<>()
+
+    private final Map<File, TaskProvider> mExplodeTaskCache
 
     private VersionAdapter mVersionAdapter
 
     private TaskProvider mMergeClassTask
 
-    VariantProcessor(Project project, LibraryVariant variant) {
+    private final FatAarMetrics mMetrics
+
+    /**
+     * @param metrics nullable, not supported by the gradle in use
+     */
+    VariantProcessor(Project project, LibraryVariant variant, Map<File, TaskProvider> explodeTaskCache,
+                     FatAarMetrics metrics) {
         mProject = project
         mVariant = variant
+        mExplodeTaskCache = explodeTaskCache
         mVersionAdapter = new VersionAdapter(project, variant)
+        mMetrics = metrics
     }
 
     void addAndroidArchiveLibrary(AndroidArchiveLibrary library) {
@@ -53,36 +59,69 @@ class VariantProcessor {
         mJarFiles.add(jar)
     }
 
+    /**
+     * record the task into the metrics report of the variant
+     */
+    private void addStage(String stage, String taskName) {
+        if (mMetrics != null) {
+            mMetrics.addStage(mVariant.name, stage, taskName)
+        }
+    }
+
+    private void addStage(String stage, String taskName, File metricsDir) {
+        if (mMetrics != null) {
+            mMetrics.addStage(mVariant.name, stage, taskName, metricsDir)
+        }
+    }
+
     void processVariant(Collection<ResolvedArtifact> artifacts,
                         Collection<ResolvableDependency> dependencies,
-                        RClassesTransform transform) {
+                        RClassesTransform transform,
+                        RClassesInstrumentation instrumentation,
+                        MergedManifestTransform manifestTransform) {
         String taskPath = 'pre' + mVariant.name.capitalize() + 'Build'
         TaskProvider prepareTask = mProject.tasks.named(taskPath)
         if (prepareTask == null) {
             throw new RuntimeException("Can not find task ${taskPath}!")
         }
         TaskProvider bundleTask = VersionAdapter.getBundleTaskProvider(mProject, mVariant.name)
+        addStage("bundle", bundleTask.name)
         preEmbed(artifacts, dependencies, prepareTask)
-        processArtifacts(artifacts, prepareTask, bundleTask)
+        processArtifacts(artifacts, bundleTask)
         processClassesAndJars(bundleTask)
         if (mAndroidArchiveLibraries.isEmpty()) {
             return
         }
-        processManifest()
+        TaskProvider manifestsMergeTask = processManifest(manifestTransform)
         processResources()
         processAssets()
         processJniLibs()
         processConsumerProguard()
         processGenerateProguard()
-        processDataBinding(bundleTask)
-        processRClasses(transform, bundleTask)
+        AarReBundler reBundler = configureReBundleAar(bundleTask)
+        processDataBinding(reBundler)
+        if (manifestTransform == null) {
+            // AGP bundles the transformed artifact itself
+            reBundler.addEntries("AndroidManifest.xml",
+                    mProject.files(DirectoryManager.getMergedManifestFile(mProject, mVariant)).builtBy(manifestsMergeTask))
+        }
+        if (instrumentation != null) {
+            processRClasses(instrumentation, reBundler)
+        } else {
+            processRClasses(transform, reBundler)
+        }
     }
 
-    private static void printEmbedArtifacts(Collection<ResolvedArtifact> artifacts,
-                                     Collection<ResolvedDependency> dependencies) {
-        Collection<String> moduleNames = artifacts.stream().map { it.moduleVersion.id.name }.collect()
+    /**
+     * @return log lines of the embedded artifacts, plain strings can be kept by the task action
+     */
+    private static List<String> describeEmbedArtifacts(Collection<ResolvedArtifact> artifacts,
+                                                      Collection<ResolvedDependency> dependencies) {
+        List<String> lines = new ArrayList<>()
+        // the artifacts not described yet
+        Map<String, ResolvedArtifact> remaining = EmbedGraph.indexArtifacts(artifacts)
         dependencies.each { dependency ->
-            if (!moduleNames.contains(dependency.moduleName)) {
+            if (!remaining.containsKey(dependency.moduleName)) {
                 return
             }
 
@@ -94,34 +133,29 @@ class VariantProcessor {
                 return
             }
 
-            FatUtils.logAnytime("[embed detected][$self.type]${self.moduleVersion.id}")
-            moduleNames.remove(self.moduleVersion.id.name)
+            lines.add("[embed detected][$self.type]${self.moduleVersion.id}".toString())
+            remaining.remove(self.moduleVersion.id.name)
 
             dependency.allModuleArtifacts.each { artifact ->
-                if (!moduleNames.contains(artifact.moduleVersion.id.name)) {
-                    return
-                }
-                if (artifact != self) {
-                    FatUtils.logAnytime("    - [embed detected][transitive][$artifact.type]${artifact.moduleVersion.id}")
-                    moduleNames.remove(artifact.moduleVersion.id.name)
+                if (artifact != self && remaining.remove(artifact.moduleVersion.id.name) != null) {
+                    lines.add("    - [embed detected][transitive][$artifact.type]${artifact.moduleVersion.id}".toString())
                 }
             }
         }
 
-        moduleNames.each { name ->
-            ResolvedArtifact artifact = artifacts.find { it.moduleVersion.id.name == name }
-            if (artifact != null) {
-                FatUtils.logAnytime("[embed detected][$artifact.type]${artifact.moduleVersion.id}")
-            }
+        remaining.values().each { artifact ->
+            lines.add("[embed detected][$artifact.type]${artifact.moduleVersion.id}".toString())
         }
+        return lines
     }
 
     private void preEmbed(Collection<ResolvedArtifact> artifacts,
                           Collection<ResolvedDependency> dependencies,
                           TaskProvider prepareTask) {
+        List<String> embedArtifacts = describeEmbedArtifacts(artifacts, dependencies)
         TaskProvider embedTask = mProject.tasks.register("pre${mVariant.name.capitalize()}Embed") {
             doFirst {
-                printEmbedArtifacts(artifacts, dependencies)
+                embedArtifacts.each { FatUtils.logAnytime(it) }
             }
         }
 
@@ -130,119 +164,105 @@ class VariantProcessor {
         }
     }
 
-    private TaskProvider configureReBundleAarTask(TaskProvider bundleTask) {
-        File aarOutputFile
-        File reBundleDir = DirectoryManager.getReBundleDirectory(mVariant)
-        bundleTask.configure { it ->
+    /**
+     * The aar is re-bundled by the last action of bundle task, so no other task writes the aar.
+     * The entry sources are inputs of bundle task, it depends on the tasks producing them.
+     */
+    private AarReBundler configureReBundleAar(TaskProvider bundleTask) {
+        AarReBundler reBundler = new AarReBundler()
+        reBundler.storedAssetExtensions = mProject.fataar.storedAssetExtensions.collect {
+            it.toLowerCase(Locale.US).replaceFirst('^\\.', '')
+        }.toSet()
+        bundleTask.configure {
+            File aarOutputFile
             if (FatUtils.compareVersion(mProject.gradle.gradleVersion, "5.1") >= 0) {
                 aarOutputFile = new File(it.getDestinationDirectory().getAsFile().get(), it.getArchiveFileName().get())
             } else {
                 aarOutputFile = new File(it.destinationDir, it.archiveName)
             }
+            // entries are added after bundle task is configured, read lazily
+            inputs.property("fatAarEntryPaths", mProject.provider { reBundler.entryPaths })
+            inputs.property("fatAarStoredAssetExtensions", reBundler.storedAssetExtensions)
+            inputs.files(mProject.files({ reBundler.entrySources }))
+                    .withPropertyName("fatAarEntrySources")
+                    .withPathSensitivity(PathSensitivity.RELATIVE)
 
-            doFirst {
-                // Delete previously unzipped data.
-                reBundleDir.deleteDir()
-            }
-
-            doLast {
-                mProject.copy {
-                    from mProject.zipTree(aarOutputFile)
-                    into reBundleDir
-                }
-                FatUtils.deleteEmptyDir(reBundleDir)
-            }
-        }
-
-        String taskName = "reBundleAar${mVariant.name.capitalize()}"
-        TaskProvider task = mProject.getTasks().register(taskName, Zip.class) {
-            it.from reBundleDir
-            it.include "**"
-            if (aarOutputFile == null) {
-                aarOutputFile = mVersionAdapter.getOutputFile()
-            }
-            if (FatUtils.compareVersion(mProject.gradle.gradleVersion, "5.1") >= 0) {
-                it.getArchiveFileName().set(aarOutputFile.getName())
-                it.getDestinationDirectory().set(aarOutputFile.getParentFile())
-            } else {
-                it.archiveName = aarOutputFile.getName()
-                it.destinationDir = aarOutputFile.getParentFile()
-            }
-
-            doLast {
+            doLast { task ->
+                reBundler.reBundle(aarOutputFile, task.logger, task.temporaryDir)
                 FatUtils.logAnytime(" target: ${aarOutputFile.absolutePath} [${FatUtils.formatDataSize(aarOutputFile.size())}]")
             }
         }
-
-        return task
+        return reBundler
     }
 
-    private void processRClasses(RClassesTransform transform, TaskProvider<Task> bundleTask) {
-        TaskProvider reBundleTask = configureReBundleAarTask(bundleTask)
+    private void processRClasses(RClassesTransform transform, AarReBundler reBundler) {
         TaskProvider transformTask = mProject.tasks.named("transformClassesWith${transform.name.capitalize()}For${mVariant.name.capitalize()}")
+        Provider sharedPool = FatUtils.getWorkerPool(mProject)
         transformTask.configure {
             it.dependsOn(mMergeClassTask)
+            if (sharedPool != null) {
+                // the transform runs on the pool of the service, see FatAarPlugin
+                it.usesService(sharedPool)
+            }
         }
         if (mProject.fataar.transformR) {
-            transformRClasses(transform, transformTask, bundleTask, reBundleTask)
+            addStage("transformR", transformTask.name,
+                    new File(DirectoryManager.getTransformRMetricsDirectory(mProject), mVariant.name))
+            transformRClasses(transform)
         } else {
-            generateRClasses(bundleTask, reBundleTask)
+            generateRClasses(reBundler)
         }
     }
 
-    private void transformRClasses(RClassesTransform transform, TaskProvider transformTask, TaskProvider bundleTask, TaskProvider reBundleTask) {
-        transform.putTargetPackage(mVariant.name, mVariant.getApplicationId())
-        transformTask.configure {
-                    doFirst {
-                        // library package name parsed by aar's AndroidManifest.xml
-                        // so must put after explode tasks perform.
-                        Collection libraryPackages = mAndroidArchiveLibraries
-                                .stream()
-                                .map { it.packageName }
-                                .collect()
-                        transform.putLibraryPackages(mVariant.name, libraryPackages);
-                    }
-                }
-        bundleTask.configure {
-            finalizedBy(reBundleTask)
+    private void processRClasses(RClassesInstrumentation instrumentation, AarReBundler reBundler) {
+        if (!mProject.fataar.transformR) {
+            generateRClasses(reBundler)
+            return
+        }
+        instrumentation.putTargetPackage(mVariant.name, mVariant.getApplicationId())
+        instrumentation.addLibraryIndexes(mVariant.name,
+                mProject.files(mAndroidArchiveLibraries.collect { it.indexFile }).builtBy(mExplodeTasks))
+        // merged classes are instrumented as the post javac bytecode, they must be merged before instrumentation.
+        String asmTaskName = "transform${mVariant.name.capitalize()}ClassesWithAsm"
+        mProject.tasks.matching { it.name == asmTaskName }.configureEach {
+            it.dependsOn(mMergeClassTask)
         }
+        // the classes are rewritten with other instrumentation, only the time is recorded
+        addStage("transformR", asmTaskName)
     }
 
-    private void generateRClasses(TaskProvider<Task> bundleTask, TaskProvider<Task> reBundleTask) {
-        RClassesGenerate rClassesGenerate = new RClassesGenerate(mProject, mVariant, mAndroidArchiveLibraries)
-        TaskProvider RTask = rClassesGenerate.configure(reBundleTask)
-        bundleTask.configure {
-            finalizedBy(RTask)
-        }
+    private void transformRClasses(RClassesTransform transform) {
+        transform.putTargetPackage(mVariant.name, mVariant.getApplicationId())
+        transform.putLibraryIndexes(mVariant.name,
+                mProject.files(mAndroidArchiveLibraries.collect { it.indexFile }).builtBy(mExplodeTasks))
     }
 
     /**
-     * copy data binding file must be do last in BundleTask, and reBundleTask will be package it.
-     * @param bundleTask
+     * generate R classes of the embedded aars into a jar, which is packaged into libs/ by reBundler
      */
-    private void processDataBinding(TaskProvider<Task> bundleTask) {
-        bundleTask.configure {
-            doLast {
-                for (archiveLibrary in mAndroidArchiveLibraries) {
-                    if (archiveLibrary.dataBindingFolder != null && archiveLibrary.dataBindingFolder.exists()) {
-                        String filePath = "${DirectoryManager.getReBundleDirectory(mVariant).path}/${archiveLibrary.dataBindingFolder.name}"
-                        new File(filePath).mkdirs()
-                        mProject.copy {
-                            from archiveLibrary.dataBindingFolder
-                            into filePath
-                        }
-                    }
+    private void generateRClasses(AarReBundler reBundler) {
+        File rJarDir = DirectoryManager.getRJarDirectory(mProject, mVariant)
+        String rJarName = "${mVariant.getApplicationId()}-r-classes.jar"
+        TaskProvider RTask = mProject.tasks.register("generateRsJar${mVariant.name.capitalize()}", GenerateRClassesTask) {
+            libraryIndexes.from(mProject.files(mAndroidArchiveLibraries.collect { it.indexFile }).builtBy(mExplodeTasks))
+            localSymbolFile = mVersionAdapter.getLocalSymbolFile()
+            targetPackage = mVariant.getApplicationId()
+            outputFile = new File(rJarDir, rJarName)
+        }
+        // the output of the task, bundle task depends on it through the entry sources
+        reBundler.addEntries("libs/" + rJarName, mProject.files(RTask))
+        addStage("generateRClasses", RTask.name)
+    }
 
-                    if (archiveLibrary.dataBindingLogFolder != null && archiveLibrary.dataBindingLogFolder.exists()) {
-                        String filePath = "${DirectoryManager.getReBundleDirectory(mVariant).path}/${archiveLibrary.dataBindingLogFolder.name}"
-                        new File(filePath).mkdirs()
-                        mProject.copy {
-                            from archiveLibrary.dataBindingLogFolder
-                            into filePath
-                        }
-                    }
-                }
-            }
+    /**
+     * data binding files are added to the aar by reBundler.
+     */
+    private void processDataBinding(AarReBundler reBundler) {
+        for (archiveLibrary in mAndroidArchiveLibraries) {
+            reBundler.addEntries(archiveLibrary.dataBindingFolder.name,
+                    mProject.files(archiveLibrary.dataBindingFolder).builtBy(mExplodeTasks))
+            reBundler.addEntries(archiveLibrary.dataBindingLogFolder.name,
+                    mProject.files(archiveLibrary.dataBindingLogFolder).builtBy(mExplodeTasks))
         }
     }
 
@@ -260,7 +280,7 @@ class VariantProcessor {
     /**
      * exploded artifact files
      */
-    private void processArtifacts(Collection<ResolvedArtifact> artifacts, TaskProvider<Task> prepareTask, TaskProvider<Task> bundleTask) {
+    private void processArtifacts(Collection<ResolvedArtifact> artifacts, TaskProvider<Task> bundleTask) {
         if (artifacts == null) {
             return
         }
@@ -268,7 +288,7 @@ class VariantProcessor {
             if (FatAarPlugin.ARTIFACT_TYPE_JAR == artifact.type) {
                 addJarFile(artifact.file)
             } else if (FatAarPlugin.ARTIFACT_TYPE_AAR == artifact.type) {
-                AndroidArchiveLibrary archiveLibrary = new AndroidArchiveLibrary(mProject, artifact, mVariant.name)
+                AndroidArchiveLibrary archiveLibrary = new AndroidArchiveLibrary(mProject, artifact)
                 addAndroidArchiveLibrary(archiveLibrary)
                 Set<Task> dependencies
 
@@ -283,75 +303,111 @@ class VariantProcessor {
                         dependencies = context.queue.getFirst().getDependencies()
                     }
                 }
-                final def zipFolder = archiveLibrary.getRootFolder()
-                zipFolder.mkdirs()
-                def group = artifact.getModuleVersion().id.group.capitalize()
-                def name = artifact.name.capitalize()
-                String taskName = "explode${group}${name}${mVariant.name.capitalize()}"
-                Task explodeTask = mProject.tasks.create(taskName, Copy) {
-                    from mProject.zipTree(artifact.file.absolutePath)
-                    into zipFolder
-
-                    doFirst {
-                        // Delete previously extracted data.
-                        zipFolder.deleteDir()
-                    }
-                }
-
-                if (dependencies.size() == 0) {
-                    explodeTask.dependsOn(prepareTask)
-                } else {
-                    explodeTask.dependsOn(dependencies.first())
+                TaskProvider explodeTask = registerExplodeTask(archiveLibrary, dependencies)
+                mVersionAdapter.getJavaCompileTask().configure {
+                    dependsOn(explodeTask)
                 }
-                Task javacTask = mVersionAdapter.getJavaCompileTask()
-                javacTask.dependsOn(explodeTask)
                 bundleTask.configure {
                     dependsOn(explodeTask)
                 }
                 mExplodeTasks.add(explodeTask)
+                addStage("explode", explodeTask.name)
             }
         }
     }
 
     /**
-     * merge manifest
+     * The same aar is exploded only once in a project, all variants embedding it share the task.
      */
-    private void processManifest() {
-        ManifestProcessorTask processManifestTask = mVersionAdapter.getProcessManifest()
-
-        File manifestOutput
-        if (FatUtils.compareVersion(VersionAdapter.AGPVersion, "4.2.0-alpha07") >= 0) {
-            manifestOutput = mProject.file("${mProject.buildDir.path}/intermediates/merged_manifest/${mVariant.name}/AndroidManifest.xml")
-        } else if (FatUtils.compareVersion(VersionAdapter.AGPVersion, "3.3.0") >= 0) {
-            manifestOutput = mProject.file("${mProject.buildDir.path}/intermediates/library_manifest/${mVariant.name}/AndroidManifest.xml")
-        } else {
-            manifestOutput = mProject.file(processManifestTask.getManifestOutputDirectory().absolutePath + "/AndroidManifest.xml")
+    private TaskProvider registerExplodeTask(AndroidArchiveLibrary archiveLibrary, Set<Task> dependencies) {
+        File zipFolder = archiveLibrary.getRootFolder()
+        TaskProvider explodeTask = mExplodeTaskCache.get(zipFolder)
+        if (explodeTask != null) {
+            return explodeTask
+        }
+
+        String taskName = "explode${archiveLibrary.group.capitalize()}${archiveLibrary.name.capitalize()}"
+        if (mExplodeTaskCache.values().any { it.name == taskName }) {
+            // flavor artifacts of the same module
+            taskName += mVariant.name.capitalize()
+        }
+        explodeTask = mProject.tasks.register(taskName, ExplodeAarTask) {
+            it.aarFile = archiveLibrary.aarFile
+            it.outputDir = zipFolder
+            it.dependsOn(dependencies)
         }
+        mExplodeTaskCache.put(zipFolder, explodeTask)
+        return explodeTask
+    }
 
+    /**
+     * merge manifest into a separate file, which transforms the merged manifest artifact of AGP 7+,
+     * or replaces AndroidManifest.xml of the aar by reBundler
+     */
+    private TaskProvider processManifest(MergedManifestTransform manifestTransform) {
         final List<File> inputManifests = new ArrayList<>()
         for (archiveLibrary in mAndroidArchiveLibraries) {
             inputManifests.add(archiveLibrary.getManifest())
         }
 
+        if (manifestTransform != null) {
+            TaskProvider<LibraryManifestMerger> manifestsMergeTask = manifestTransform.getMergeTask(mVariant.name)
+            manifestsMergeTask.configure {
+                dependsOn(mExplodeTasks)
+                setSecondaryManifestFiles(inputManifests)
+            }
+            addStage("mergeManifest", manifestsMergeTask.name)
+            return manifestsMergeTask
+        }
+
+        TaskProvider processManifestTask = mVersionAdapter.getProcessManifest()
         TaskProvider<LibraryManifestMerger> manifestsMergeTask = mProject.tasks.register("merge${mVariant.name.capitalize()}Manifest", LibraryManifestMerger) {
+            File manifestOutput
+            if (FatUtils.compareVersion(VersionAdapter.AGPVersion, "4.2.0-alpha07") >= 0) {
+                manifestOutput = mProject.file("${mProject.buildDir.path}/intermediates/merged_manifest/${mVariant.name}/AndroidManifest.xml")
+            } else if (FatUtils.compareVersion(VersionAdapter.AGPVersion, "3.3.0") >= 0) {
+                manifestOutput = mProject.file("${mProject.buildDir.path}/intermediates/library_manifest/${mVariant.name}/AndroidManifest.xml")
+            } else {
+                manifestOutput = mProject.file(processManifestTask.get().getManifestOutputDirectory().absolutePath + "/AndroidManifest.xml")
+            }
+
+            dependsOn(processManifestTask)
+            dependsOn(mExplodeTasks)
             setGradleVersion(mProject.getGradle().getGradleVersion())
             setGradlePluginVersion(VersionAdapter.AGPVersion)
-            setMainManifestFile(manifestOutput)
+            mainManifest.set(manifestOutput)
             setSecondaryManifestFiles(inputManifests)
-            setOutputFile(manifestOutput)
-        }
-
-        processManifestTask.dependsOn(mExplodeTasks)
-        processManifestTask.inputs.files(inputManifests)
-        processManifestTask.doLast {
-            // Merge manifests
-            manifestsMergeTask.get().doTaskAction()
+            mergedManifest.set(DirectoryManager.getMergedManifestFile(mProject, mVariant))
         }
+        addStage("mergeManifest", manifestsMergeTask.name)
+        return manifestsMergeTask
     }
 
     private TaskProvider handleClassesMergeTask(final boolean isMinifyEnabled) {
-        final TaskProvider task = mProject.tasks.register("mergeClasses" + mVariant.name.capitalize()) {
+        final TaskProvider task = mProject.tasks.register("mergeClasses" + mVariant.name.capitalize(), MergeClassesTask) {
             dependsOn(mExplodeTasks)
+            aars.from(mAndroidArchiveLibraries.stream().map { it.aarFile }.collect())
+            if (isMinifyEnabled) {
+                mergeAarLibs = true
+                libsJars.from(mJarFiles)
+            }
+            outputDir = DirectoryManager.getMergeClassDirectory(mProject, mVariant)
+            entriesManifest = DirectoryManager.getMergeClassManifest(mProject, mVariant)
+            duplicatePolicy = mProject.fataar.duplicateClassPolicy
+            // the pool shared by the build, so concurrent merges do not oversubscribe the CPU
+            Provider sharedPool = FatUtils.getWorkerPool(mProject)
+            if (sharedPool != null) {
+                workerPool = sharedPool
+                usesService(sharedPool)
+            }
+        }
+        addStage("mergeClasses", task.name)
+        return task
+    }
+
+    private TaskProvider handleCopyClassesTask(final TaskProvider mergeClassesTask) {
+        final TaskProvider task = mProject.tasks.register("copyMergedClasses" + mVariant.name.capitalize(), CopyMergedClassesTask) {
+            dependsOn(mergeClassesTask)
             dependsOn(mVersionAdapter.getJavaCompileTask())
             try {
                 // main lib maybe not use kotlin
@@ -363,71 +419,36 @@ class VariantProcessor {
 
             }
 
-            inputs.files(mAndroidArchiveLibraries.stream().map { it.classesJarFile }.collect())
-                    .withPathSensitivity(PathSensitivity.RELATIVE)
-            if (isMinifyEnabled) {
-                inputs.files(mAndroidArchiveLibraries.stream().map { it.localJars }.collect())
-                        .withPathSensitivity(PathSensitivity.RELATIVE)
-                inputs.files(mJarFiles).withPathSensitivity(PathSensitivity.RELATIVE)
-            }
-            File outputDir = DirectoryManager.getMergeClassDirectory(mVariant)
-            File javacDir = mVersionAdapter.getClassPathDirFiles().first()
-            outputs.dir(outputDir)
-
-            doFirst {
-                // Extract relative paths and delete previous output.
-                def pathsToDelete = new ArrayList<Path>()
-                mProject.fileTree(outputDir).forEach {
-                    pathsToDelete.add(Paths.get(outputDir.absolutePath).relativize(Paths.get(it.absolutePath)))
-                }
-                outputDir.deleteDir()
-                // Delete output files from javac dir.
-                pathsToDelete.forEach {
-                    Files.deleteIfExists(Paths.get("$javacDir.absolutePath/${it.toString()}"))
-                }
-            }
-
-            doLast {
-                ExplodedHelper.processClassesJarInfoClasses(mProject, mAndroidArchiveLibraries, outputDir)
-                if (isMinifyEnabled) {
-                    ExplodedHelper.processLibsIntoClasses(mProject, mAndroidArchiveLibraries, mJarFiles, outputDir)
-                }
-
-                mProject.copy {
-                    from outputDir
-                    into javacDir
-                    exclude 'META-INF/'
-                }
-
-                mProject.copy {
-                    from outputDir.absolutePath + "/META-INF"
-                    into DirectoryManager.getKotlinMetaDirectory(mVariant)
-                    include '*.kotlin_module'
-                }
-            }
+            classesDir = DirectoryManager.getMergeClassDirectory(mProject, mVariant)
+            copiedManifest = DirectoryManager.getCopiedClassesManifest(mProject, mVariant)
+            kotlinMetaDir = DirectoryManager.getKotlinMetaDirectory(mProject, mVariant)
         }
+        addStage("copyMergedClasses", task.name)
         return task
     }
 
-    private TaskProvider handleJarMergeTask(final TaskProvider syncLibTask) {
-        final TaskProvider task = mProject.tasks.register("mergeJars" + mVariant.name.capitalize()) {
+    private TaskProvider handleJarMergeTask() {
+        final TaskProvider task = mProject.tasks.register("mergeJars" + mVariant.name.capitalize(), MergeJarsTask) {
             dependsOn(mExplodeTasks)
-            dependsOn(mVersionAdapter.getJavaCompileTask())
-            mustRunAfter(syncLibTask)
-
-            inputs.files(mAndroidArchiveLibraries.stream().map { it.libsFolder }.collect())
-                    .withPathSensitivity(PathSensitivity.RELATIVE)
-            inputs.files(mJarFiles).withPathSensitivity(PathSensitivity.RELATIVE)
-            def outputDir = mVersionAdapter.getLibsDirFile()
-            outputs.dir(outputDir)
-
-            doFirst {
-                ExplodedHelper.processLibsIntoLibs(mProject, mAndroidArchiveLibraries, mJarFiles, outputDir)
-            }
+            jars.from(getLocalJars())
+            jars.from(mJarFiles)
+            outputDir = DirectoryManager.getMergeJarsDirectory(mProject, mVariant)
+            consolidate = mProject.fataar.consolidateJars
+            duplicatePolicy = mProject.fataar.duplicateClassPolicy
         }
+        addStage("mergeJars", task.name)
         return task
     }
 
+    /**
+     * local jars are listed lazily, the aars are not exploded at configuration time.
+     */
+    private Collection<FileTree> getLocalJars() {
+        return mAndroidArchiveLibraries.collect { archiveLibrary ->
+            mProject.fileTree(archiveLibrary.libsFolder) { include '*.jar' }
+        }
+    }
+
     /**
      * merge classes and jars
      */
@@ -437,7 +458,12 @@ class VariantProcessor {
         TaskProvider syncLibTask = mProject.tasks.named(mVersionAdapter.getSyncLibJarsTaskPath())
         TaskProvider extractAnnotationsTask = mProject.tasks.named("extract${mVariant.name.capitalize()}Annotations")
 
-        mMergeClassTask = handleClassesMergeTask(isMinifyEnabled)
+        TaskProvider mergeClassesTask = handleClassesMergeTask(isMinifyEnabled)
+        // the merged classes are bundled and transformed from their own dir, as the bytecode generated after javac,
+        // instead of being copied into javac dir.
+        mVariant.registerPostJavacGeneratedBytecode(
+                mProject.files(DirectoryManager.getMergeClassDirectory(mProject, mVariant)).builtBy(mergeClassesTask))
+        mMergeClassTask = handleCopyClassesTask(mergeClassesTask)
         syncLibTask.configure {
             dependsOn(mMergeClassTask)
             inputs.files(mAndroidArchiveLibraries.stream().map { it.libsFolder }.collect())
@@ -449,9 +475,11 @@ class VariantProcessor {
         }
 
         if (!isMinifyEnabled) {
-            TaskProvider mergeJars = handleJarMergeTask(syncLibTask)
+            TaskProvider mergeJars = handleJarMergeTask()
             bundleTask.configure {
-                dependsOn(mergeJars)
+                from(mergeJars) {
+                    into 'libs'
+                }
             }
         }
     }
@@ -469,16 +497,23 @@ class VariantProcessor {
             throw new RuntimeException("Can not find task ${taskPath}!")
         }
 
-        resourceGenTask.configure {
+        File dedupResDir = DirectoryManager.getDedupResDirectory(mProject, mVariant)
+        TaskProvider dedupTask = mProject.tasks.register("dedupResources${mVariant.name.capitalize()}", DedupResourcesTask) {
             dependsOn(mExplodeTasks)
-
-            mProject.android.sourceSets.each { DefaultAndroidSourceSet sourceSet ->
-                if (sourceSet.name == mVariant.name) {
-                    for (archiveLibrary in mAndroidArchiveLibraries) {
-                        FatUtils.logInfo("Merge resource，Library res：${archiveLibrary.resFolder}")
-                        sourceSet.res.srcDir(archiveLibrary.resFolder)
-                    }
-                }
+            folders = mAndroidArchiveLibraries.collect { it.resFolder }
+            outputDir = dedupResDir
+            duplicatePolicy = mProject.fataar.duplicateResourcePolicy
+        }
+        resourceGenTask.configure {
+            dependsOn(dedupTask)
+        }
+        addStage("dedupResources", dedupTask.name)
+        addStage("generateResources", resourceGenTask.name)
+        // The res folders of the aars are replaced by the deduplicated one.
+        mProject.android.sourceSets.each { DefaultAndroidSourceSet sourceSet ->
+            if (sourceSet.name == mVariant.name) {
+                FatUtils.logInfo("Merge resource，deduplicated res：${dedupResDir}")
+                sourceSet.res.srcDir(dedupResDir)
             }
         }
     }
@@ -489,22 +524,28 @@ class VariantProcessor {
      * AaptOptions.setIgnoreAssets and AaptOptions.setIgnoreAssetsPattern will work as normal
      */
     private void processAssets() {
-        Task assetsTask = mVersionAdapter.getMergeAssets()
+        TaskProvider assetsTask = mVersionAdapter.getMergeAssets()
         if (assetsTask == null) {
             throw new RuntimeException("Can not find task in variant.getMergeAssets()!")
         }
 
-        assetsTask.dependsOn(mExplodeTasks)
-        assetsTask.doFirst {
-            mProject.android.sourceSets.each {
-                if (it.name == mVariant.name) {
-                    for (archiveLibrary in mAndroidArchiveLibraries) {
-                        if (archiveLibrary.assetsFolder != null && archiveLibrary.assetsFolder.exists()) {
-                            FatUtils.logInfo("Merge assets，Library assets folder：${archiveLibrary.assetsFolder}")
-                            it.assets.srcDir(archiveLibrary.assetsFolder)
-                        }
-                    }
-                }
+        File dedupAssetsDir = DirectoryManager.getDedupAssetsDirectory(mProject, mVariant)
+        TaskProvider dedupTask = mProject.tasks.register("dedupAssets${mVariant.name.capitalize()}", DedupAssetsTask) {
+            dependsOn(mExplodeTasks)
+            folders = mAndroidArchiveLibraries.collect { it.assetsFolder }
+            outputDir = dedupAssetsDir
+            duplicatePolicy = mProject.fataar.duplicateResourcePolicy
+        }
+        assetsTask.configure {
+            dependsOn(dedupTask)
+        }
+        addStage("dedupAssets", dedupTask.name)
+        addStage("mergeAssets", assetsTask.name)
+        // The source set is configured up front rather than in a task action.
+        mProject.android.sourceSets.each {
+            if (it.name == mVariant.name) {
+                FatUtils.logInfo("Merge assets，deduplicated assets folder：${dedupAssetsDir}")
+                it.assets.srcDir(dedupAssetsDir)
             }
         }
     }
@@ -519,19 +560,22 @@ class VariantProcessor {
             throw new RuntimeException("Can not find task ${taskPath}!")
         }
 
-        mergeJniLibsTask.configure {
+        File dedupJniDir = DirectoryManager.getDedupJniDirectory(mProject, mVariant)
+        TaskProvider dedupTask = mProject.tasks.register("dedupJniLibs${mVariant.name.capitalize()}", DedupJniLibsTask) {
             dependsOn(mExplodeTasks)
-
-            doFirst {
-                for (archiveLibrary in mAndroidArchiveLibraries) {
-                    if (archiveLibrary.jniFolder != null && archiveLibrary.jniFolder.exists()) {
-                        mProject.android.sourceSets.each {
-                            if (it.name == mVariant.name) {
-                                it.jniLibs.srcDir(archiveLibrary.jniFolder)
-                            }
-                        }
-                    }
-                }
+            folders = mAndroidArchiveLibraries.collect { it.jniFolder }
+            outputDir = dedupJniDir
+            abiFilters = new HashSet<String>(mProject.fataar.abiFilters)
+            duplicatePolicy = mProject.fataar.duplicateResourcePolicy
+        }
+        mergeJniLibsTask.configure {
+            dependsOn(dedupTask)
+        }
+        addStage("dedupJniLibs", dedupTask.name)
+        addStage("mergeJniLibs", mergeJniLibsTask.name)
+        mProject.android.sourceSets.each {
+            if (it.name == mVariant.name) {
+                it.jniLibs.srcDir(dedupJniDir)
             }
         }
     }
@@ -546,19 +590,23 @@ class VariantProcessor {
             throw new RuntimeException("Can not find task ${mergeTaskName}!")
         }
 
+        Collection<AndroidArchiveLibrary> libraries = mAndroidArchiveLibraries
+        boolean collapse = mProject.fataar.collapseProguardRules
+        addStage("mergeConsumerProguard", mergeFileTask.name)
         mergeFileTask.configure {
             dependsOn(mExplodeTasks)
             doLast {
                 try {
-                    Collection<File> files = mAndroidArchiveLibraries.stream().map { it.proguardRules }.collect()
                     File of
-                    if (outputFile instanceof File) {
-                        of = outputFile
+                    if (it.outputFile instanceof File) {
+                        of = it.outputFile
                     } else {
                         // RegularFileProperty.class
-                        of = outputFile.get().asFile
+                        of = it.outputFile.get().asFile
                     }
-                    FatUtils.mergeFiles(files, of)
+                    int duplicateCount = ProguardRulesMerger.merge(
+                            libraries.findAll { it.index.hasProguard() }.collect { it.proguardRules }, of, collapse)
+                    FatUtils.logInfo("Merge proguard rules, ${duplicateCount} duplicates left out")
                 } catch (Exception e) {
                     FatUtils.logAnytime(("If you see this error message, please submit issue to " +
                             "https://github.com/kezong/fat-aar-android/issues with version of AGP and Gradle. Thank you.")
@@ -582,19 +630,23 @@ class VariantProcessor {
             return
         }
 
+        Collection<AndroidArchiveLibrary> libraries = mAndroidArchiveLibraries
+        boolean collapse = mProject.fataar.collapseProguardRules
+        addStage("mergeGeneratedProguard", mergeGenerateProguardTask.name)
         mergeGenerateProguardTask.configure {
             dependsOn(mExplodeTasks)
             doLast {
                 try {
-                    Collection<File> files = mAndroidArchiveLibraries.stream().map { it.proguardRules }.collect()
                     File of
-                    if (outputFile instanceof File) {
-                        of = outputFile
+                    if (it.outputFile instanceof File) {
+                        of = it.outputFile
                     } else {
                         // RegularFileProperty.class
-                        of = outputFile.get().asFile
+                        of = it.outputFile.get().asFile
                     }
-                    FatUtils.mergeFiles(files, of)
+                    int duplicateCount = ProguardRulesMerger.merge(
+                            libraries.findAll { it.index.hasProguard() }.collect { it.proguardRules }, of, collapse)
+                    FatUtils.logInfo("Merge proguard rules, ${duplicateCount} duplicates left out")
                 } catch (Exception e) {
                     FatUtils.logAnytime(("If you see this error message, please submit issue to " +
                             "https://github.com/kezong/fat-aar-android/issues with version of AGP and Gradle. Thank you.")
@@ -35,21 +35,6 @@ class VersionAdapter {
         return classpath
     }
 
-    ConfigurableFileCollection getRClassPath() {
-        if (FatUtils.compareVersion(AGPVersion, "4.1.0") >= 0) {
-            return mProject.files("${mProject.buildDir.path}/intermediates/" + "compile_r_class_jar/"
-                    + "${mVariant.name}")
-        } else if (FatUtils.compareVersion(AGPVersion, "3.5.0") >= 0) {
-            return mProject.files("${mProject.buildDir.path}/intermediates/" + "compile_only_not_namespaced_r_class_jar/"
-                    + "${mVariant.name}")
-        } else if (FatUtils.compareVersion(AGPVersion, "3.3.0") >= 0) {
-            return mProject.files("${mProject.buildDir.path}/intermediates/" + "compile_only_not_namespaced_r_class_jar/"
-                    + "${mVariant.name}/generate${mVariant.name.capitalize()}RFile")
-        } else {
-            return getClassPathDirFiles()
-        }
-    }
-
     File getLibsDirFile() {
         if (FatUtils.compareVersion(AGPVersion, '3.6.0') >= 0) {
             return mProject.file("${mProject.buildDir.path}/intermediates/aar_libs_directory/${mVariant.name}/libs")
@@ -60,27 +45,31 @@ class VersionAdapter {
         }
     }
 
-    Task getJavaCompileTask() {
+    /**
+     * The task providers are returned without realizing the tasks.
+     * Before AGP 3.3 the tasks are already created, they are wrapped by {@code tasks.named}.
+     */
+    TaskProvider<Task> getJavaCompileTask() {
         if (FatUtils.compareVersion(AGPVersion, "3.3.0") >= 0) {
-            return mVariant.getJavaCompileProvider().get()
+            return mVariant.getJavaCompileProvider()
         } else {
-            return mVariant.getJavaCompiler()
+            return mProject.tasks.named(mVariant.getJavaCompiler().name)
         }
     }
 
-    ManifestProcessorTask getProcessManifest() {
+    TaskProvider<ManifestProcessorTask> getProcessManifest() {
         if (FatUtils.compareVersion(AGPVersion, "3.3.0") >= 0) {
-            return mVariant.getOutputs().first().getProcessManifestProvider().get()
+            return mVariant.getOutputs().first().getProcessManifestProvider()
         } else {
-            return mVariant.getOutputs().first().getProcessManifest()
+            return mProject.tasks.named(mVariant.getOutputs().first().getProcessManifest().name)
         }
     }
 
-    Task getMergeAssets() {
+    TaskProvider<Task> getMergeAssets() {
         if (FatUtils.compareVersion(AGPVersion, "3.3.0") >= 0) {
-            return mVariant.getMergeAssetsProvider().get()
+            return mVariant.getMergeAssetsProvider()
         } else {
-            return mVariant.getMergeAssets()
+            return mProject.tasks.named(mVariant.getMergeAssets().name)
         }
     }
 
@@ -0,0 +1,235 @@
+package com.kezong.fataar;
+
+import com.android.utils.FileUtils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Metadata of an exploded aar, written by {@link ExplodeAarTask} next to the exploded files.
+ * <p>
+ * The exploded folder is cached by the content of the aar, so the index is computed once
+ * and read by all the variants and builds embedding the aar, instead of parsing the manifest,
+ * R.txt and listing the folders again.
+ * <pre>
+ * package com.lib
+ * flag jni
+ * symbol int layout activity_main
+ * </pre>
+ */
+public class AarIndex {
+
+    public static final String FILE_NAME = "fat-aar-index.txt";
+
+    private static final String PACKAGE_PREFIX = "package ";
+
+    private static final String FLAG_PREFIX = "flag ";
+
+    private static final String SYMBOL_PREFIX = "symbol ";
+
+    private static final String FLAG_JNI = "jni";
+
+    private static final String FLAG_ASSETS = "assets";
+
+    private static final String FLAG_DATA_BINDING = "data-binding";
+
+    private static final String FLAG_PROGUARD = "proguard";
+
+    private String mPackageName;
+
+    /**
+     * subclass -> (name -> type), in the order of R.txt
+     */
+    private final Map<String, Map<String, String>> mSymbols = new LinkedHashMap<>();
+
+    private boolean mHasJni;
+
+    private boolean mHasAssets;
+
+    private boolean mHasDataBinding;
+
+    private boolean mHasProguard;
+
+    private AarIndex() {
+    }
+
+    /**
+     * @param rootFolder  the exploded folder
+     * @param entryNames  entries of the aar, so the folder is not listed again
+     */
+    static AarIndex create(File rootFolder, Collection<String> entryNames) throws IOException {
+        AarIndex index = new AarIndex();
+        for (String entryName : entryNames) {
+            if (entryName.startsWith("jni/")) {
+                index.mHasJni = true;
+            } else if (entryName.startsWith("assets/")) {
+                index.mHasAssets = true;
+            } else if (entryName.startsWith("data-binding/")) {
+                index.mHasDataBinding = true;
+            } else if (entryName.equals("proguard.txt")) {
+                index.mHasProguard = true;
+            }
+        }
+
+        File manifest = new File(rootFolder, "AndroidManifest.xml");
+        if (manifest.isFile()) {
+            index.mPackageName = parsePackageName(manifest);
+        }
+
+        File symbolFile = new File(rootFolder, "R.txt");
+        if (symbolFile.isFile()) {
+            try (BufferedReader reader = Files.newBufferedReader(symbolFile.toPath(), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    // int[] styleable Foo { 0x7f010000, 0x7f010001 }
+                    String[] splits = line.trim().split(" ", 4);
+                    if (splits.length >= 3) {
+                        index.putSymbol(splits[0], splits[1], splits[2]);
+                    }
+                }
+            }
+        }
+        return index;
+    }
+
+    static AarIndex read(File file) throws IOException {
+        AarIndex index = new AarIndex();
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(SYMBOL_PREFIX)) {
+                    String[] splits = line.substring(SYMBOL_PREFIX.length()).split(" ");
+                    if (splits.length == 3) {
+                        index.putSymbol(splits[0], splits[1], splits[2]);
+                    }
+                } else if (line.startsWith(PACKAGE_PREFIX)) {
+                    index.mPackageName = line.substring(PACKAGE_PREFIX.length());
+                } else if (line.startsWith(FLAG_PREFIX)) {
+                    index.setFlag(line.substring(FLAG_PREFIX.length()));
+                }
+            }
+        }
+        return index;
+    }
+
+    void write(File file) throws IOException {
+        FileUtils.mkdirs(file.getParentFile());
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            if (mPackageName != null) {
+                writeLine(writer, PACKAGE_PREFIX + mPackageName);
+            }
+            if (mHasJni) {
+                writeLine(writer, FLAG_PREFIX + FLAG_JNI);
+            }
+            if (mHasAssets) {
+                writeLine(writer, FLAG_PREFIX + FLAG_ASSETS);
+            }
+            if (mHasDataBinding) {
+                writeLine(writer, FLAG_PREFIX + FLAG_DATA_BINDING);
+            }
+            if (mHasProguard) {
+                writeLine(writer, FLAG_PREFIX + FLAG_PROGUARD);
+            }
+            for (Map.Entry<String, Map<String, String>> symbols : mSymbols.entrySet()) {
+                for (Map.Entry<String, String> symbol : symbols.getValue().entrySet()) {
+                    writeLine(writer, SYMBOL_PREFIX + symbol.getValue() + " " + symbols.getKey() + " " + symbol.getKey());
+                }
+            }
+        }
+    }
+
+    private static void writeLine(BufferedWriter writer, String line) throws IOException {
+        writer.write(line);
+        writer.newLine();
+    }
+
+    private void putSymbol(String type, String subclass, String name) {
+        mSymbols.computeIfAbsent(subclass, key -> new LinkedHashMap<>()).put(name, type);
+    }
+
+    private void setFlag(String flag) {
+        switch (flag) {
+            case FLAG_JNI:
+                mHasJni = true;
+                break;
+            case FLAG_ASSETS:
+                mHasAssets = true;
+                break;
+            case FLAG_DATA_BINDING:
+                mHasDataBinding = true;
+                break;
+            case FLAG_PROGUARD:
+                mHasProguard = true;
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Only the root element is read, the rest of the manifest is skipped.
+     * @return package attribute of the manifest, null if the root element has none
+     * @throws IOException if the manifest is not readable or not well-formed
+     */
+    static String parsePackageName(File manifestFile) throws IOException {
+        try (InputStream inputStream = Files.newInputStream(manifestFile.toPath())) {
+            XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(inputStream);
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                        return reader.getAttributeValue(null, "package");
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Failed to parse " + manifestFile, e);
+        }
+        return null;
+    }
+
+    /**
+     * @return package name of the aar, null if the manifest is missing
+     */
+    public String getPackageName() {
+        return mPackageName;
+    }
+
+    /**
+     * @return subclass -> (name -> type) of R.txt, values are not kept
+     */
+    public Map<String, Map<String, String>> getSymbols() {
+        return Collections.unmodifiableMap(mSymbols);
+    }
+
+    public boolean hasJni() {
+        return mHasJni;
+    }
+
+    public boolean hasAssets() {
+        return mHasAssets;
+    }
+
+    public boolean hasDataBinding() {
+        return mHasDataBinding;
+    }
+
+    public boolean hasProguard() {
+        return mHasProguard;
+    }
+}
@@ -0,0 +1,253 @@
+package com.kezong.fataar;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.utils.IOUtils;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.logging.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Re-bundle the aar produced by bundle task in place.
+ * <p>
+ * Entries that fat-aar does not touch are copied as raw compressed bytes, only the added or
+ * replaced entries are compressed, nothing is extracted to disk.
+ * Assets which are already compressed, such as images and audio, are stored without compression.
+ * <p>
+ * Run as the last action of bundle task, which declares the entry sources as its inputs, see VariantProcessor.
+ * So the aar has one producer: no other task writes the same output file, and the up-to-date check of
+ * bundle task covers the re-bundled aar. Only plain values and file collections are kept,
+ * so it can be captured by the task action restored from configuration cache.
+ */
+public class AarReBundler {
+
+    /**
+     * Same as the timestamp used by gradle when preserveFileTimestamps is false.
+     */
+    private static final long CONSTANT_TIME_FOR_ZIP_ENTRIES =
+            new GregorianCalendar(1980, 1, 1, 0, 0, 0).getTimeInMillis();
+
+    /**
+     * Same as the extensions aapt does not compress by default.
+     */
+    public static final Set<String> DEFAULT_STORED_EXTENSIONS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "jpg", "jpeg", "png", "gif", "webp",
+            "wav", "mp2", "mp3", "ogg", "aac", "mid", "midi", "smf", "jet", "rtttl", "imy", "xmf", "amr", "awb", "wma",
+            "mpg", "mpeg", "mp4", "m4a", "m4v", "3gp", "3gpp", "3g2", "3gpp2", "wmv", "webm", "mkv",
+            "zip", "gz", "xz", "bz2", "7z")));
+
+    private static final String ASSETS = "assets/";
+
+    private Set<String> mStoredAssetExtensions = new HashSet<>();
+
+    private final List<String> mEntryPaths = new ArrayList<>();
+
+    private final List<FileCollection> mEntrySources = new ArrayList<>();
+
+    /**
+     * Add or replace entries of the aar.
+     * @param path entry path in aar, a directory path if source is a directory
+     * @param source a file or a directory, ignored if not exists. Built by the task producing it,
+     *               so bundle task depends on that task through its inputs.
+     */
+    public void addEntries(String path, FileCollection source) {
+        mEntryPaths.add(path);
+        mEntrySources.add(source);
+    }
+
+    /**
+     * @param metricsDir where {@link TaskMetrics} are written, the temporary dir of bundle task
+     */
+    public void reBundle(File aarFile, Logger logger, File metricsDir) throws IOException {
+        Map<String, File> newEntries = collectNewEntries();
+        if (newEntries.isEmpty() && !hasEntriesToStore(aarFile)) {
+            logger.info("[fat-aar]Nothing to re-bundle in " + aarFile.getName());
+            return;
+        }
+
+        File tempFile = new File(aarFile.getParentFile(), aarFile.getName() + ".tmp");
+        int storedCount = 0;
+        long newBytes = 0;
+        try (ZipFile zipFile = new ZipFile(aarFile);
+             ZipArchiveOutputStream outputStream = new ZipArchiveOutputStream(tempFile)) {
+            TreeSet<String> entryNames = new TreeSet<>(newEntries.keySet());
+            Enumeration<ZipArchiveEntry> entries = zipFile.getEntries();
+            while (entries.hasMoreElements()) {
+                entryNames.add(entries.nextElement().getName());
+            }
+
+            entries = zipFile.getEntriesInPhysicalOrder();
+            while (entries.hasMoreElements()) {
+                ZipArchiveEntry entry = entries.nextElement();
+                if (newEntries.containsKey(entry.getName())) {
+                    continue;
+                }
+                if (entry.isDirectory() && isEmptyDirectory(entryNames, entry.getName())) {
+                    continue;
+                }
+                if (shouldStore(entry)) {
+                    storeEntry(zipFile, entry, outputStream);
+                    storedCount++;
+                    continue;
+                }
+                try (InputStream rawStream = zipFile.getRawInputStream(entry)) {
+                    outputStream.addRawArchiveEntry(entry, rawStream);
+                }
+            }
+
+            for (Map.Entry<String, File> newEntry : newEntries.entrySet()) {
+                putDirectories(outputStream, entryNames, newEntry.getKey());
+                ZipArchiveEntry entry = new ZipArchiveEntry(newEntry.getKey());
+                entry.setTime(CONSTANT_TIME_FOR_ZIP_ENTRIES);
+                entry.setMethod(isStoredAsset(newEntry.getKey()) ? ZipEntry.STORED : ZipEntry.DEFLATED);
+                outputStream.putArchiveEntry(entry);
+                Files.copy(newEntry.getValue().toPath(), outputStream);
+                outputStream.closeArchiveEntry();
+                newBytes += newEntry.getValue().length();
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile.toPath());
+            throw e;
+        }
+        Files.move(tempFile.toPath(), aarFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        if (storedCount > 0) {
+            logger.info("[fat-aar]Store " + storedCount + " compressed assets without compression");
+        }
+        new TaskMetrics()
+                .read(newEntries.size(), newBytes)
+                .written(1, aarFile.length())
+                .write(metricsDir);
+    }
+
+    private boolean hasEntriesToStore(File aarFile) throws IOException {
+        if (getStoredAssetExtensions().isEmpty()) {
+            return false;
+        }
+        try (ZipFile zipFile = new ZipFile(aarFile)) {
+            Enumeration<ZipArchiveEntry> entries = zipFile.getEntries();
+            while (entries.hasMoreElements()) {
+                if (shouldStore(entries.nextElement())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean shouldStore(ZipArchiveEntry entry) {
+        return !entry.isDirectory() && entry.getMethod() != ZipEntry.STORED && isStoredAsset(entry.getName());
+    }
+
+    private boolean isStoredAsset(String name) {
+        if (!name.startsWith(ASSETS)) {
+            return false;
+        }
+        int dot = name.lastIndexOf('.');
+        return dot > name.lastIndexOf('/')
+                && getStoredAssetExtensions().contains(name.substring(dot + 1).toLowerCase(Locale.US));
+    }
+
+    /**
+     * crc and size of the uncompressed data are known, so the entry is written in one pass.
+     */
+    private static void storeEntry(ZipFile zipFile, ZipArchiveEntry entry, ZipArchiveOutputStream outputStream)
+            throws IOException {
+        ZipArchiveEntry stored = new ZipArchiveEntry(entry.getName());
+        stored.setTime(entry.getTime());
+        stored.setMethod(ZipEntry.STORED);
+        stored.setSize(entry.getSize());
+        stored.setCompressedSize(entry.getSize());
+        stored.setCrc(entry.getCrc());
+        outputStream.putArchiveEntry(stored);
+        try (InputStream inputStream = zipFile.getInputStream(entry)) {
+            IOUtils.copy(inputStream, outputStream);
+        }
+        outputStream.closeArchiveEntry();
+    }
+
+    private Map<String, File> collectNewEntries() throws IOException {
+        Map<String, File> newEntries = new LinkedHashMap<>();
+        for (int i = 0; i < mEntrySources.size(); i++) {
+            String path = mEntryPaths.get(i);
+            for (File source : mEntrySources.get(i).getFiles()) {
+                if (source.isFile()) {
+                    newEntries.put(path, source);
+                } else if (source.isDirectory()) {
+                    try (Stream<Path> files = Files.walk(source.toPath())) {
+                        files.filter(Files::isRegularFile)
+                                .sorted()
+                                .forEach(it -> {
+                                    String relative = source.toPath().relativize(it).toString().replace(File.separatorChar, '/');
+                                    newEntries.put(path + "/" + relative, it.toFile());
+                                });
+                    }
+                }
+            }
+        }
+        return newEntries;
+    }
+
+    private static boolean isEmptyDirectory(TreeSet<String> entryNames, String directory) {
+        String next = entryNames.higher(directory);
+        return next == null || !next.startsWith(directory);
+    }
+
+    /**
+     * Zip task writes entries for parent directories, keep the same layout for new entries.
+     */
+    private static void putDirectories(ZipArchiveOutputStream outputStream,
+                                       TreeSet<String> entryNames,
+                                       String entryName) throws IOException {
+        int index = entryName.indexOf('/');
+        while (index > 0) {
+            String directory = entryName.substring(0, index + 1);
+            if (entryNames.add(directory)) {
+                ZipArchiveEntry entry = new ZipArchiveEntry(directory);
+                entry.setTime(CONSTANT_TIME_FOR_ZIP_ENTRIES);
+                outputStream.putArchiveEntry(entry);
+                outputStream.closeArchiveEntry();
+            }
+            index = entryName.indexOf('/', index + 1);
+        }
+    }
+
+    public List<String> getEntryPaths() {
+        return mEntryPaths;
+    }
+
+    public List<FileCollection> getEntrySources() {
+        return mEntrySources;
+    }
+
+    /**
+     * extensions without dot, in lower case
+     */
+    public Set<String> getStoredAssetExtensions() {
+        return mStoredAssetExtensions;
+    }
+
+    public void setStoredAssetExtensions(Set<String> storedAssetExtensions) {
+        this.mStoredAssetExtensions = storedAssetExtensions;
+    }
+}
@@ -3,60 +3,78 @@ package com.kezong.fataar;
 import org.gradle.api.Project;
 import org.gradle.api.artifacts.ModuleVersionIdentifier;
 import org.gradle.api.artifacts.ResolvedArtifact;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
-
-import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.IOException;
 
+/**
+ * An embedded aar. Only plain values are kept, so it can be captured by task actions
+ * which are restored from configuration cache.
+ */
 public class AndroidArchiveLibrary {
 
-    private final Project mProject;
+    private final String mGroup;
+
+    private final String mName;
+
+    private final String mVersion;
 
-    private final ResolvedArtifact mArtifact;
+    private final File mAarFile;
 
-    private final String mVariantName;
+    private final File mRootFolder;
 
-    private String mPackageName;
+    private transient AarIndex mIndex;
 
-    public AndroidArchiveLibrary(Project project, ResolvedArtifact artifact, String variantName) {
+    public AndroidArchiveLibrary(Project project, ResolvedArtifact artifact) {
         if (!"aar".equals(artifact.getType())) {
             throw new IllegalArgumentException("artifact must be aar type!");
         }
-        mProject = project;
-        mArtifact = artifact;
-        mVariantName = variantName;
+        ModuleVersionIdentifier id = artifact.getModuleVersion().getId();
+        mGroup = id.getGroup();
+        mName = id.getName();
+        mVersion = id.getVersion();
+        mAarFile = artifact.getFile();
+        mRootFolder = createRootFolder(project, artifact);
     }
 
     public String getGroup() {
-        return mArtifact.getModuleVersion().getId().getGroup();
+        return mGroup;
     }
 
     public String getName() {
-        return mArtifact.getModuleVersion().getId().getName();
+        return mName;
     }
 
     public String getVersion() {
-        return mArtifact.getModuleVersion().getId().getVersion();
+        return mVersion;
+    }
+
+    public File getAarFile() {
+        return mAarFile;
     }
 
     public File getRootFolder() {
-        File explodedRootDir = mProject.file(
-                mProject.getBuildDir() + "/intermediates" + "/exploded-aar/");
-        ModuleVersionIdentifier id = mArtifact.getModuleVersion().getId();
-        return mProject.file(explodedRootDir
+        return mRootFolder;
+    }
+
+    /**
+     * The exploded folder is shared by all variants, only the entries read by the stages are extracted,
+     * see {@link ExplodeAarTask#isExtracted}. The last segment is the artifact name
+     * to distinguish the flavor artifacts of the same module.
+     */
+    private static File createRootFolder(Project project, ResolvedArtifact artifact) {
+        File explodedRootDir = project.file(
+                project.getBuildDir() + "/intermediates" + "/exploded-aar/");
+        ModuleVersionIdentifier id = artifact.getModuleVersion().getId();
+        String artifactName = artifact.getName();
+        if (artifact.getClassifier() != null && !artifact.getClassifier().isEmpty()) {
+            artifactName += "-" + artifact.getClassifier();
+        }
+        return project.file(explodedRootDir
                 + "/" + id.getGroup()
                 + "/" + id.getName()
                 + "/" + id.getVersion()
-                + "/" + mVariantName);
-    }
-
-    public File getAidlFolder() {
-        return new File(getRootFolder(), "aidl");
+                + "/" + artifactName);
     }
 
     public File getAssetsFolder() {
@@ -67,24 +85,6 @@ public class AndroidArchiveLibrary {
         return new File(getRootFolder(), "libs");
     }
 
-    public File getClassesJarFile() {
-        return new File(getRootFolder(), "classes.jar");
-    }
-
-    public Collection<File> getLocalJars() {
-        List<File> localJars = new ArrayList<>();
-        File[] jarList = getLibsFolder().listFiles();
-        if (jarList != null) {
-            for (File jars : jarList) {
-                if (jars.isFile() && jars.getName().endsWith(".jar")) {
-                    localJars.add(jars);
-                }
-            }
-        }
-
-        return localJars;
-    }
-
     public File getJniFolder() {
         return new File(getRootFolder(), "jni");
     }
@@ -97,10 +97,6 @@ public class AndroidArchiveLibrary {
         return new File(getRootFolder(), "AndroidManifest.xml");
     }
 
-    public File getLintJar() {
-        return new File(getRootFolder(), "lint.jar");
-    }
-
     public File getProguardRules() {
         return new File(getRootFolder(), "proguard.txt");
     }
@@ -109,23 +105,34 @@ public class AndroidArchiveLibrary {
         return new File(getRootFolder(), "R.txt");
     }
 
-    public synchronized String getPackageName() {
-        if (mPackageName == null) {
-            File manifestFile = getManifest();
-            if (manifestFile.exists()) {
-                try {
-                    DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-                    Document doc = dbf.newDocumentBuilder().parse(manifestFile);
-                    Element element = doc.getDocumentElement();
-                    mPackageName = element.getAttribute("package");
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            } else {
-                throw new RuntimeException(getName() + " module's AndroidManifest not found");
+    public File getIndexFile() {
+        return new File(getRootFolder(), AarIndex.FILE_NAME);
+    }
+
+    /**
+     * Only available after the aar is exploded, read once per instance.
+     */
+    public synchronized AarIndex getIndex() {
+        if (mIndex == null) {
+            File indexFile = getIndexFile();
+            if (!indexFile.exists()) {
+                throw new RuntimeException(getName() + " module's index not found, the aar is not exploded");
+            }
+            try {
+                mIndex = AarIndex.read(indexFile);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to read " + indexFile, e);
             }
         }
-        return mPackageName;
+        return mIndex;
+    }
+
+    public String getPackageName() {
+        String packageName = getIndex().getPackageName();
+        if (packageName == null) {
+            throw new RuntimeException(getName() + " module's AndroidManifest not found");
+        }
+        return packageName;
     }
 
     public File getDataBindingFolder() {
@@ -0,0 +1,175 @@
+package com.kezong.fataar;
+
+import com.android.utils.FileUtils;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.Task;
+import org.gradle.api.specs.Spec;
+import org.gradle.api.tasks.InputDirectory;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Copy *.kotlin_module of the output of {@link MergeClassesTask} into kotlin meta dir,
+ * so they are packaged with the java resources of the module.
+ * <p>
+ * The merged classes are not copied, they are registered to the variant as post javac bytecode,
+ * see VariantProcessor.
+ * <p>
+ * Split from {@link MergeClassesTask} to keep that one cacheable.
+ * The copied entries are recorded as the output of the task. Their names are only known after merging,
+ * so the copies are not declared one by one. Instead the task is up-to-date only if all the recorded copies
+ * are still in place, kotlin compile may clean its output dir. A file is only copied when it is missing
+ * or differs from the merged one.
+ */
+public class CopyMergedClassesTask extends DefaultTask {
+
+    private static final String META_INF = "META-INF/";
+
+    private static final String KOTLIN_MODULE_SUFFIX = ".kotlin_module";
+
+    private File mClassesDir;
+
+    private File mCopiedManifest;
+
+    private File mKotlinMetaDir;
+
+    public CopyMergedClassesTask() {
+        getOutputs().upToDateWhen(new CopiesInPlace());
+    }
+
+    @TaskAction
+    public void copy() throws IOException {
+        Set<String> previousEntries = new HashSet<>();
+        File manifest = getCopiedManifest();
+        if (manifest.isFile()) {
+            previousEntries.addAll(Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8));
+        }
+
+        List<String> entries = new ArrayList<>();
+        Path classesPath = getClassesDir().toPath();
+        int copiedCount = 0;
+        TaskMetrics metrics = new TaskMetrics();
+        Path metaPath = classesPath.resolve(META_INF);
+        // the classes are not walked, only the top level of META-INF is copied
+        try (Stream<Path> files = Files.isDirectory(metaPath) ? Files.list(metaPath) : Stream.empty()) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                String entry = classesPath.relativize(file).toString().replace(File.separatorChar, '/');
+                File copy = getCopyLocation(entry);
+                if (copy == null) {
+                    continue;
+                }
+                entries.add(entry);
+                previousEntries.remove(entry);
+                if (copy.isFile()
+                        && copy.length() == Files.size(file)
+                        && copy.lastModified() == Files.getLastModifiedTime(file).toMillis()) {
+                    continue;
+                }
+                FileUtils.mkdirs(copy.getParentFile());
+                Files.copy(file, copy.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                copiedCount++;
+                metrics.read(1, copy.length()).written(1, copy.length());
+            }
+        }
+
+        // the copies of the entries removed since last run
+        for (String entry : previousEntries) {
+            File copy = getCopyLocation(entry);
+            if (copy != null) {
+                Files.deleteIfExists(copy.toPath());
+            }
+        }
+
+        FileUtils.mkdirs(manifest.getParentFile());
+        Files.write(manifest.toPath(), entries, StandardCharsets.UTF_8);
+        getLogger().info("[fat-aar]Copy kotlin modules, " + copiedCount + " copied, "
+                + previousEntries.size() + " deleted");
+        metrics.write(getTemporaryDir());
+    }
+
+    private File getCopyLocation(String entry) {
+        if (!entry.startsWith(META_INF)) {
+            return null;
+        }
+        String name = entry.substring(META_INF.length());
+        if (name.endsWith(KOTLIN_MODULE_SUFFIX) && name.indexOf('/') < 0) {
+            return new File(getKotlinMetaDir(), name);
+        }
+        return null;
+    }
+
+    @InputDirectory
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public File getClassesDir() {
+        return mClassesDir;
+    }
+
+    public void setClassesDir(File classesDir) {
+        this.mClassesDir = classesDir;
+    }
+
+    /**
+     * Records the copied entries, used to delete the copies of removed entries.
+     */
+    @OutputFile
+    public File getCopiedManifest() {
+        return mCopiedManifest;
+    }
+
+    public void setCopiedManifest(File copiedManifest) {
+        this.mCopiedManifest = copiedManifest;
+    }
+
+    @Internal
+    public File getKotlinMetaDir() {
+        return mKotlinMetaDir;
+    }
+
+    public void setKotlinMetaDir(File kotlinMetaDir) {
+        this.mKotlinMetaDir = kotlinMetaDir;
+    }
+
+    /**
+     * Whether the copies recorded by the last run are still the same as the merged files,
+     * the manifest and the merged classes are compared by gradle.
+     */
+    private static final class CopiesInPlace implements Spec<Task> {
+
+        @Override
+        public boolean isSatisfiedBy(Task element) {
+            CopyMergedClassesTask task = (CopyMergedClassesTask) element;
+            File manifest = task.getCopiedManifest();
+            if (!manifest.isFile()) {
+                return false;
+            }
+            try {
+                for (String entry : Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8)) {
+                    File copy = task.getCopyLocation(entry);
+                    File merged = new File(task.getClassesDir(), entry);
+                    if (copy == null || !copy.isFile() || copy.length() != merged.length()) {
+                        return false;
+                    }
+                }
+            } catch (IOException e) {
+                return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.kezong.fataar;
+
+import org.gradle.api.tasks.CacheableTask;
+
+/**
+ * Merge the assets folders of the embedded aars.
+ */
+@CacheableTask
+public class DedupAssetsTask extends DedupFoldersTask {
+
+    public DedupAssetsTask() {
+        super("assets");
+    }
+}
@@ -0,0 +1,217 @@
+package com.kezong.fataar;
+
+import com.android.utils.FileUtils;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * Merge the same kind of folders of the embedded aars into one folder, which is added to the source set
+ * instead of the folder of each aar.
+ * <p>
+ * Files with the same path are compared by content hash, identical ones are kept once.
+ * Files with the same path but different content are reported according to {@link DuplicatePolicy},
+ * the later aar wins.
+ */
+public abstract class DedupFoldersTask extends DefaultTask {
+
+    private final String mContentName;
+
+    private List<File> mFolders = new ArrayList<>();
+
+    private File mOutputDir;
+
+    private DuplicatePolicy mDuplicatePolicy = DuplicatePolicy.WARN;
+
+    /**
+     * @param contentName what is merged, used in the messages
+     */
+    protected DedupFoldersTask(String contentName) {
+        this.mContentName = contentName;
+    }
+
+    @TaskAction
+    public void dedup() throws IOException {
+        File outputDir = getOutputDir();
+        FileUtils.cleanOutputDir(outputDir);
+
+        // relative path -> files, in the order of folders
+        Map<String, List<File>> sources = new TreeMap<>();
+        int filteredCount = 0;
+        for (File folder : getFolders()) {
+            if (!folder.isDirectory()) {
+                continue;
+            }
+            Path folderPath = folder.toPath();
+            try (Stream<Path> files = Files.walk(folderPath)) {
+                for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                    String path = folderPath.relativize(file).toString().replace(File.separatorChar, '/');
+                    if (!accept(path)) {
+                        filteredCount++;
+                        continue;
+                    }
+                    sources.computeIfAbsent(path, it -> new ArrayList<>()).add(file.toFile());
+                }
+            }
+        }
+
+        DuplicateReport report = new DuplicateReport(mContentName);
+        Map<File, byte[]> hashes = new HashMap<>();
+        int fileCount = 0;
+        for (Map.Entry<String, List<File>> source : sources.entrySet()) {
+            String path = source.getKey();
+            List<File> distinct = new ArrayList<>();
+            for (File file : source.getValue()) {
+                File identical = findIdentical(distinct, file, hashes);
+                if (identical == null) {
+                    distinct.add(file);
+                } else {
+                    report.addIdentical(file.length());
+                }
+            }
+
+            if (distinct.size() == 1) {
+                link(distinct.get(0), new File(outputDir, path));
+            } else {
+                mergeDistinct(path, distinct, outputDir, report);
+            }
+            fileCount += distinct.size();
+        }
+        getLogger().info("[fat-aar]Dedup " + mContentName + ", " + fileCount + " files of "
+                + getFolders().size() + " folders, " + filteredCount + " filtered");
+        report.report(getLogger(), getDuplicatePolicy());
+        // files are hard linked when possible, the bytes written are those of the distinct files
+        long totalBytes = 0;
+        int totalCount = 0;
+        for (List<File> files : sources.values()) {
+            for (File file : files) {
+                totalBytes += file.length();
+                totalCount++;
+            }
+        }
+        new TaskMetrics()
+                .read(totalCount, totalBytes)
+                .written(fileCount, totalBytes - report.getIdenticalBytes())
+                .add(TaskMetrics.DUPLICATE_BYTES_AVOIDED, report.getIdenticalBytes())
+                .write(getTemporaryDir());
+    }
+
+    /**
+     * @param path relative path in the folder
+     * @return false to leave the file out
+     */
+    protected boolean accept(String path) {
+        return true;
+    }
+
+    /**
+     * Called when the same path has different content, the later aar wins by default.
+     * @param distinct files of different content, in the order of folders
+     */
+    protected void mergeDistinct(String path, List<File> distinct, File outputDir, DuplicateReport report)
+            throws IOException {
+        for (int i = 1; i < distinct.size(); i++) {
+            report.addConflict(path, getLibraryName(distinct.get(i - 1), path), getLibraryName(distinct.get(i), path));
+        }
+        link(distinct.get(distinct.size() - 1), new File(outputDir, path));
+    }
+
+    /**
+     * The size is compared first, the content is hashed only when sizes are equal.
+     */
+    private static File findIdentical(List<File> candidates, File file, Map<File, byte[]> hashes) throws IOException {
+        for (File candidate : candidates) {
+            if (candidate.length() == file.length()
+                    && Arrays.equals(getHash(candidate, hashes), getHash(file, hashes))) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private static byte[] getHash(File file, Map<File, byte[]> hashes) throws IOException {
+        byte[] hash = hashes.get(file);
+        if (hash == null) {
+            try (InputStream inputStream = Files.newInputStream(file.toPath())) {
+                hash = FatFiles.sha256(inputStream);
+            }
+            hashes.put(file, hash);
+        }
+        return hash;
+    }
+
+    /**
+     * The folder is under the exploded folder of the aar, which is named by the artifact.
+     */
+    private static String getLibraryName(File file, String path) {
+        File folder = file;
+        for (int i = path.split("/").length; i > 0 && folder != null; i--) {
+            folder = folder.getParentFile();
+        }
+        return folder == null || folder.getParentFile() == null ? file.getPath() : folder.getParentFile().getName();
+    }
+
+    /**
+     * Hard link the file, fallback to copy if the file system does not support it.
+     */
+    protected static void link(File input, File output) throws IOException {
+        FileUtils.mkdirs(output.getParentFile());
+        try {
+            Files.createLink(output.toPath(), input.toPath());
+        } catch (IOException | UnsupportedOperationException | SecurityException e) {
+            Files.copy(input.toPath(), output.toPath());
+        }
+    }
+
+    /**
+     * folders of the embedded aars, the later one wins if the content conflicts.
+     */
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public List<File> getFolders() {
+        return mFolders;
+    }
+
+    public void setFolders(List<File> folders) {
+        this.mFolders = folders;
+    }
+
+    @OutputDirectory
+    public File getOutputDir() {
+        return mOutputDir;
+    }
+
+    public void setOutputDir(File outputDir) {
+        this.mOutputDir = outputDir;
+    }
+
+    /**
+     * Applied to the files with the same path but different content.
+     */
+    @Input
+    public DuplicatePolicy getDuplicatePolicy() {
+        return mDuplicatePolicy;
+    }
+
+    public void setDuplicatePolicy(DuplicatePolicy duplicatePolicy) {
+        this.mDuplicatePolicy = duplicatePolicy;
+    }
+}
@@ -0,0 +1,42 @@
+package com.kezong.fataar;
+
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Input;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Merge the jni folders of the embedded aars, only the native libraries of the allowed ABIs are kept.
+ */
+@CacheableTask
+public class DedupJniLibsTask extends DedupFoldersTask {
+
+    private Set<String> mAbiFilters = new HashSet<>();
+
+    public DedupJniLibsTask() {
+        super("jni libs");
+    }
+
+    /**
+     * jni/armeabi-v7a/libfoo.so
+     */
+    @Override
+    protected boolean accept(String path) {
+        Set<String> abiFilters = getAbiFilters();
+        int separator = path.indexOf('/');
+        return abiFilters.isEmpty() || separator < 0 || abiFilters.contains(path.substring(0, separator));
+    }
+
+    /**
+     * ABIs to keep, all are kept if empty
+     */
+    @Input
+    public Set<String> getAbiFilters() {
+        return mAbiFilters;
+    }
+
+    public void setAbiFilters(Set<String> abiFilters) {
+        this.mAbiFilters = abiFilters;
+    }
+}
@@ -0,0 +1,46 @@
+package com.kezong.fataar;
+
+import org.gradle.api.tasks.CacheableTask;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Merge the res folders of the embedded aars.
+ * <p>
+ * Values files are different in every aar, so they are all kept with the later ones renamed,
+ * the values are merged by AGP as before.
+ */
+@CacheableTask
+public class DedupResourcesTask extends DedupFoldersTask {
+
+    private static final String VALUES = "values";
+
+    public DedupResourcesTask() {
+        super("resources");
+    }
+
+    @Override
+    protected void mergeDistinct(String path, List<File> distinct, File outputDir, DuplicateReport report)
+            throws IOException {
+        if (!path.startsWith(VALUES)) {
+            super.mergeDistinct(path, distinct, outputDir, report);
+            return;
+        }
+        for (int i = 0; i < distinct.size(); i++) {
+            link(distinct.get(i), new File(outputDir, i == 0 ? path : renameValuesFile(path, i)));
+        }
+    }
+
+    /**
+     * values/values.xml -> values/values_fataar1.xml
+     */
+    private static String renameValuesFile(String path, int index) {
+        int dot = path.lastIndexOf('.');
+        if (dot < path.lastIndexOf('/')) {
+            dot = path.length();
+        }
+        return path.substring(0, dot) + "_fataar" + index + path.substring(dot);
+    }
+}
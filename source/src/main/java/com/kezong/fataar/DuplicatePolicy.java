@@ -0,0 +1,18 @@
+package com.kezong.fataar;
+
+/**
+ * What to do when the embedded libraries contain the same entry with different content.
+ * Byte-identical duplicates are always merged silently.
+ */
+public enum DuplicatePolicy {
+
+    /**
+     * Log a warning, the entry of the later library wins.
+     */
+    WARN,
+
+    /**
+     * Fail the build.
+     */
+    FAIL
+}
@@ -0,0 +1,71 @@
+package com.kezong.fataar;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the duplicated entries found when merging the embedded libraries.
+ */
+final class DuplicateReport {
+
+    private final String mName;
+
+    private int mIdenticalCount;
+
+    private long mIdenticalBytes;
+
+    private final List<String> mConflicts = new ArrayList<>();
+
+    /**
+     * @param name what is merged, used in the messages
+     */
+    DuplicateReport(String name) {
+        this.mName = name;
+    }
+
+    synchronized void addIdentical(long size) {
+        mIdenticalCount++;
+        mIdenticalBytes += size;
+    }
+
+    synchronized void addConflict(String entry, Object first, Object second) {
+        mConflicts.add(entry + " in " + first + " and " + second);
+    }
+
+    int getIdenticalCount() {
+        return mIdenticalCount;
+    }
+
+    long getIdenticalBytes() {
+        return mIdenticalBytes;
+    }
+
+    List<String> getConflicts() {
+        return mConflicts;
+    }
+
+    /**
+     * Log the avoided bytes at info level, identical duplicates are harmless and common with overlapping aars.
+     * Warn or fail on the conflicts.
+     */
+    void report(Logger logger, DuplicatePolicy policy) {
+        if (mIdenticalCount > 0) {
+            logger.info("[fat-aar]Merge " + mName + ", " + mIdenticalCount + " identical duplicates merged once, "
+                    + mIdenticalBytes + " bytes avoided");
+        }
+        if (mConflicts.isEmpty()) {
+            return;
+        }
+        StringBuilder message = new StringBuilder("[fat-aar]Duplicate " + mName + " with different content:");
+        for (String conflict : mConflicts) {
+            message.append("\n  ").append(conflict);
+        }
+        if (policy == DuplicatePolicy.FAIL) {
+            throw new GradleException(message.toString());
+        }
+        logger.warn(message.toString());
+    }
+}
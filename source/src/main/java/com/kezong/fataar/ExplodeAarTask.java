@@ -0,0 +1,121 @@
+package com.kezong.fataar;
+
+import com.android.utils.FileUtils;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Explode an aar into a folder.
+ * <p>
+ * Only the entries read by the stages of fat-aar are extracted, see {@link #isExtracted}.
+ * classes.jar is streamed from the aar by {@link MergeClassesTask}, lint.jar, aidl and the others
+ * are never read, so they are not written to disk. All entries are still listed into the index.
+ * <p>
+ * One task is shared by all variants that embed the same aar. The aar is tracked by content only,
+ * so the build cache key is the hash of the aar and any project embedding it gets a cache hit.
+ * {@link AarIndex} is written into the folder, so the metadata is cached along with the files.
+ */
+@CacheableTask
+public class ExplodeAarTask extends DefaultTask {
+
+    private static final String LIBS = "libs/";
+
+    private static final List<String> EXTRACTED_FILES = Arrays.asList(
+            "AndroidManifest.xml", "R.txt", "proguard.txt");
+
+    private static final List<String> EXTRACTED_FOLDERS = Arrays.asList(
+            "res/", "assets/", "jni/", "data-binding/", "data-binding-base-class-log/");
+
+    private File mAarFile;
+
+    private File mOutputDir;
+
+    @TaskAction
+    public void explode() throws IOException {
+        File outputDir = getOutputDir();
+        // Delete previously extracted data.
+        FileUtils.cleanOutputDir(outputDir);
+        List<String> entryNames = new ArrayList<>();
+        TaskMetrics metrics = new TaskMetrics().read(1, getAarFile().length());
+        try (ZipFile zipFile = new ZipFile(getAarFile())) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                File target = FatFiles.resolveEntry(outputDir, entry.getName());
+                if (!entry.isDirectory()) {
+                    entryNames.add(entry.getName());
+                }
+                if (!isExtracted(entry.getName())) {
+                    continue;
+                }
+                if (entry.isDirectory()) {
+                    FileUtils.mkdirs(target);
+                    continue;
+                }
+                FileUtils.mkdirs(target.getParentFile());
+                try (InputStream inputStream = zipFile.getInputStream(entry)) {
+                    metrics.written(1, Files.copy(inputStream, target.toPath(), StandardCopyOption.REPLACE_EXISTING));
+                }
+            }
+        }
+        try {
+            AarIndex.create(outputDir, entryNames).write(new File(outputDir, AarIndex.FILE_NAME));
+        } catch (IOException e) {
+            throw new IOException("Failed to index " + getAarFile().getName(), e);
+        }
+        metrics.write(getTemporaryDir());
+    }
+
+    /**
+     * @return whether the entry is read from the exploded folder by any stage
+     */
+    static boolean isExtracted(String entryName) {
+        if (entryName.startsWith(LIBS)) {
+            // local jars, the same as AarIndex
+            return entryName.endsWith(".jar") && entryName.indexOf('/', LIBS.length()) < 0;
+        }
+        for (String prefix : EXTRACTED_FOLDERS) {
+            if (entryName.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return EXTRACTED_FILES.contains(entryName);
+    }
+
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    public File getAarFile() {
+        return mAarFile;
+    }
+
+    public void setAarFile(File aarFile) {
+        this.mAarFile = aarFile;
+    }
+
+    @OutputDirectory
+    public File getOutputDir() {
+        return mOutputDir;
+    }
+
+    public void setOutputDir(File outputDir) {
+        this.mOutputDir = outputDir;
+    }
+}
@@ -0,0 +1,199 @@
+package com.kezong.fataar;
+
+import com.android.utils.FileUtils;
+
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+import org.gradle.tooling.events.FinishEvent;
+import org.gradle.tooling.events.OperationCompletionListener;
+import org.gradle.tooling.events.OperationResult;
+import org.gradle.tooling.events.task.TaskFailureResult;
+import org.gradle.tooling.events.task.TaskFinishEvent;
+import org.gradle.tooling.events.task.TaskSkippedResult;
+import org.gradle.tooling.events.task.TaskSuccessResult;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Records the tasks of fat-aar and the AGP tasks it hooks into, and writes a JSON report per variant
+ * into build/reports/fat-aar/ when the build finishes.
+ * <p>
+ * Wall time and outcome come from the task events of gradle, so the tasks restored from cache
+ * or up-to-date are recorded too. I/O counters come from {@link TaskMetrics} written by the task actions.
+ * <pre>
+ * {
+ *   "variant": "release",
+ *   "durationMs": 1234,
+ *   "cacheHits": 2,
+ *   "stages": [
+ *     {"stage": "mergeClasses", "task": ":lib:mergeClassesRelease", "outcome": "EXECUTED", "durationMs": 321, "filesRead": 12, ...}
+ *   ]
+ * }
+ * </pre>
+ */
+public abstract class FatAarMetricsService implements BuildService<FatAarMetricsService.Parameters>,
+        OperationCompletionListener, AutoCloseable {
+
+    public interface Parameters extends BuildServiceParameters {
+
+        DirectoryProperty getReportsDir();
+
+        /**
+         * task path -> stage name
+         */
+        MapProperty<String, String> getStages();
+
+        /**
+         * task path -> comma separated variant names, a task may be shared by variants
+         */
+        MapProperty<String, String> getVariants();
+
+        /**
+         * task path -> {@link TaskMetrics} file
+         */
+        MapProperty<String, String> getMetricsFiles();
+    }
+
+    private final List<StageRecord> mRecords = Collections.synchronizedList(new ArrayList<>());
+
+    @Override
+    public void onFinish(FinishEvent event) {
+        if (!(event instanceof TaskFinishEvent)) {
+            return;
+        }
+        String taskPath = ((TaskFinishEvent) event).getDescriptor().getTaskPath();
+        String stage = getParameters().getStages().get().get(taskPath);
+        if (stage == null) {
+            return;
+        }
+        OperationResult result = event.getResult();
+        StageRecord record = new StageRecord(stage, taskPath, getOutcome(result), result.getEndTime() - result.getStartTime());
+        if (record.mOutcome.equals("EXECUTED")) {
+            String metricsFile = getParameters().getMetricsFiles().get().get(taskPath);
+            File file = metricsFile == null ? null : new File(metricsFile);
+            // ignore the counters left by a previous build, some file systems keep mtime in seconds
+            if (file != null && file.lastModified() >= result.getStartTime() - 1000) {
+                record.mCounters.putAll(TaskMetrics.read(file));
+            }
+        }
+        mRecords.add(record);
+    }
+
+    private static String getOutcome(OperationResult result) {
+        if (result instanceof TaskSuccessResult) {
+            TaskSuccessResult successResult = (TaskSuccessResult) result;
+            if (successResult.isFromCache()) {
+                return "FROM-CACHE";
+            }
+            return successResult.isUpToDate() ? "UP-TO-DATE" : "EXECUTED";
+        } else if (result instanceof TaskSkippedResult) {
+            return ((TaskSkippedResult) result).getSkipMessage();
+        } else if (result instanceof TaskFailureResult) {
+            return "FAILED";
+        }
+        return "UNKNOWN";
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mRecords.isEmpty()) {
+            return;
+        }
+        Map<String, List<StageRecord>> recordsOfVariants = new TreeMap<>();
+        Map<String, String> variants = getParameters().getVariants().get();
+        synchronized (mRecords) {
+            for (StageRecord record : mRecords) {
+                String variantNames = variants.get(record.mTaskPath);
+                if (variantNames == null) {
+                    continue;
+                }
+                for (String variantName : variantNames.split(",")) {
+                    recordsOfVariants.computeIfAbsent(variantName, it -> new ArrayList<>()).add(record);
+                }
+            }
+        }
+
+        File reportsDir = getParameters().getReportsDir().get().getAsFile();
+        FileUtils.mkdirs(reportsDir);
+        for (Map.Entry<String, List<StageRecord>> entry : recordsOfVariants.entrySet()) {
+            writeReport(new File(reportsDir, entry.getKey() + ".json"), entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static void writeReport(File file, String variantName, List<StageRecord> records) throws IOException {
+        long duration = 0;
+        int cacheHits = 0;
+        for (StageRecord record : records) {
+            duration += record.mDurationMs;
+            if (record.mOutcome.equals("FROM-CACHE") || record.mOutcome.equals("UP-TO-DATE")) {
+                cacheHits++;
+            }
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            writer.write("{\n");
+            writer.write("  \"variant\": " + quote(variantName) + ",\n");
+            writer.write("  \"durationMs\": " + duration + ",\n");
+            writer.write("  \"cacheHits\": " + cacheHits + ",\n");
+            writer.write("  \"stages\": [");
+            for (int i = 0; i < records.size(); i++) {
+                StageRecord record = records.get(i);
+                writer.write(i == 0 ? "\n" : ",\n");
+                writer.write("    {\"stage\": " + quote(record.mStage)
+                        + ", \"task\": " + quote(record.mTaskPath)
+                        + ", \"outcome\": " + quote(record.mOutcome)
+                        + ", \"durationMs\": " + record.mDurationMs);
+                for (Map.Entry<String, Long> counter : record.mCounters.entrySet()) {
+                    writer.write(", " + quote(counter.getKey()) + ": " + counter.getValue());
+                }
+                writer.write("}");
+            }
+            writer.write(records.isEmpty() ? "]\n" : "\n  ]\n");
+            writer.write("}\n");
+        }
+    }
+
+    private static String quote(String value) {
+        StringBuilder builder = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+    private static final class StageRecord {
+
+        private final String mStage;
+
+        private final String mTaskPath;
+
+        private final String mOutcome;
+
+        private final long mDurationMs;
+
+        private final Map<String, Long> mCounters = new TreeMap<>();
+
+        StageRecord(String stage, String taskPath, String outcome, long durationMs) {
+            this.mStage = stage;
+            this.mTaskPath = taskPath;
+            this.mOutcome = outcome;
+            this.mDurationMs = durationMs;
+        }
+    }
+}
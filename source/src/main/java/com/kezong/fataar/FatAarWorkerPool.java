@@ -0,0 +1,44 @@
+package com.kezong.fataar;
+
+import org.gradle.api.provider.Property;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One bounded thread pool for the whole build, shared by the R classes transforms of all projects and variants.
+ * <p>
+ * The threads are created on first use and stopped when the build finishes,
+ * the work still running is interrupted then.
+ */
+public abstract class FatAarWorkerPool implements BuildService<FatAarWorkerPool.Parameters>, AutoCloseable {
+
+    public interface Parameters extends BuildServiceParameters {
+
+        /**
+         * max-workers of gradle by default
+         */
+        Property<Integer> getMaxThreads();
+    }
+
+    private ExecutorService mExecutor;
+
+    public synchronized ExecutorService getExecutor() {
+        if (mExecutor == null) {
+            mExecutor = WorkerPools.newPool(getParameters().getMaxThreads().get());
+        }
+        return mExecutor;
+    }
+
+    @Override
+    public synchronized void close() throws InterruptedException {
+        if (mExecutor == null) {
+            return;
+        }
+        mExecutor.shutdownNow();
+        mExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        mExecutor = null;
+    }
+}
@@ -0,0 +1,59 @@
+package com.kezong.fataar;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * File helpers shared by the tasks.
+ */
+final class FatFiles {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private FatFiles() {
+    }
+
+    /**
+     * Guards against zip slip: the name of an entry read from an archive or a manifest,
+     * such as {@code ../../foo}, must not point outside of the dir it is extracted into or deleted from.
+     * @return the file of the entry in the dir
+     * @throws IOException if the entry is outside of the dir
+     */
+    static File resolveEntry(File dir, String entry) throws IOException {
+        File target = new File(dir, entry);
+        if (!target.getCanonicalPath().startsWith(dir.getCanonicalPath() + File.separator)) {
+            throw new IOException("Illegal entry " + entry + ", outside of " + dir);
+        }
+        return target;
+    }
+
+    /**
+     * @return SHA-256 of the rest of the stream, the stream is not closed
+     */
+    static byte[] sha256(InputStream inputStream) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+        return digest.digest();
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,208 @@
+package com.kezong.fataar;
+
+import com.android.utils.FileUtils;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.GregorianCalendar;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generate R classes of the embedded aars when transformR is disabled.
+ * <p>
+ * The fields of library R classes point to the R classes of the main module,
+ * the same as javac compiles
+ * <pre>
+ * public static final int foo = com.main.R.layout.foo;
+ * </pre>
+ * The class files are written into the jar directly, so neither java sources nor the R.jar of AGP are needed.
+ */
+@CacheableTask
+public class GenerateRClassesTask extends DefaultTask {
+
+    /**
+     * Same as the timestamp used by gradle when preserveFileTimestamps is false.
+     */
+    private static final long CONSTANT_TIME_FOR_ZIP_ENTRIES =
+            new GregorianCalendar(1980, 1, 1, 0, 0, 0).getTimeInMillis();
+
+    private static final int FIELD_ACCESS = Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL;
+
+    private final ConfigurableFileCollection mLibraryIndexes = getProject().files();
+
+    private File mLocalSymbolFile;
+
+    private String mTargetPackage;
+
+    private File mOutputFile;
+
+    @TaskAction
+    public void generate() throws IOException {
+        RSymbolTable localSymbols = RSymbolTable.parse(getLocalSymbolFile());
+
+        // internal name of library package -> resource type -> name -> type of field
+        Map<String, Map<String, Map<String, String>>> packages = new TreeMap<>();
+        TaskMetrics metrics = new TaskMetrics().read(1, getLocalSymbolFile().length());
+        for (File indexFile : getLibraryIndexes()) {
+            metrics.read(1, indexFile.length());
+            AarIndex index = AarIndex.read(indexFile);
+            if (index.getPackageName() == null) {
+                continue;
+            }
+            getLogger().info("[fat-aar]Generate R classes, package:" + index.getPackageName());
+            Map<String, Map<String, String>> fields = packages.computeIfAbsent(
+                    index.getPackageName().replace('.', '/'), key -> new TreeMap<>());
+            for (Map.Entry<String, Map<String, String>> symbols : index.getSymbols().entrySet()) {
+                String resourceType = symbols.getKey();
+                for (Map.Entry<String, String> symbol : symbols.getValue().entrySet()) {
+                    if (localSymbols.contains(resourceType, symbol.getKey())) {
+                        fields.computeIfAbsent(resourceType, key -> new TreeMap<>())
+                                .put(symbol.getKey(), symbol.getValue());
+                    }
+                }
+            }
+        }
+
+        File outputFile = getOutputFile();
+        // only the declared output is touched, the folder may be shared
+        FileUtils.mkdirs(outputFile.getParentFile());
+        Files.deleteIfExists(outputFile.toPath());
+        String targetPackage = getTargetPackage().replace('.', '/');
+        try (ZipOutputStream outputStream = new ZipOutputStream(Files.newOutputStream(outputFile.toPath()))) {
+            for (Map.Entry<String, Map<String, Map<String, String>>> entry : packages.entrySet()) {
+                String rClass = entry.getKey() + "/R";
+                writeEntry(outputStream, rClass, generateRClass(rClass, entry.getValue().keySet()));
+                for (Map.Entry<String, Map<String, String>> fields : entry.getValue().entrySet()) {
+                    String resourceType = fields.getKey();
+                    writeEntry(outputStream, rClass + "$" + resourceType,
+                            generateResourceClass(rClass, targetPackage + "/R$" + resourceType, resourceType, fields.getValue()));
+                }
+                metrics.add(TaskMetrics.FILES_WRITTEN, entry.getValue().size() + 1);
+            }
+        }
+        metrics.add(TaskMetrics.BYTES_WRITTEN, outputFile.length()).write(getTemporaryDir());
+    }
+
+    private static void writeEntry(ZipOutputStream outputStream, String internalName, byte[] bytes) throws IOException {
+        ZipEntry entry = new ZipEntry(internalName + ".class");
+        entry.setTime(CONSTANT_TIME_FOR_ZIP_ENTRIES);
+        outputStream.putNextEntry(entry);
+        outputStream.write(bytes);
+        outputStream.closeEntry();
+    }
+
+    private static byte[] generateRClass(String rClass, Iterable<String> resourceTypes) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER,
+                rClass, null, "java/lang/Object", null);
+        for (String resourceType : resourceTypes) {
+            cw.visitInnerClass(rClass + "$" + resourceType, rClass, resourceType, FIELD_ACCESS);
+        }
+        visitConstructor(cw);
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /**
+     * @param fields name -> int or int[]
+     */
+    private static byte[] generateResourceClass(String rClass, String targetClass, String resourceType,
+                                                Map<String, String> fields) {
+        String className = rClass + "$" + resourceType;
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER,
+                className, null, "java/lang/Object", null);
+        cw.visitInnerClass(className, rClass, resourceType, FIELD_ACCESS);
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            cw.visitField(FIELD_ACCESS, field.getKey(), getDescriptor(field.getValue()), null, null).visitEnd();
+        }
+        visitConstructor(cw);
+
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_STATIC, "<clinit>", "()V", null, null);
+        mv.visitCode();
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            String descriptor = getDescriptor(field.getValue());
+            mv.visitFieldInsn(Opcodes.GETSTATIC, targetClass, field.getKey(), descriptor);
+            mv.visitFieldInsn(Opcodes.PUTSTATIC, className, field.getKey(), descriptor);
+        }
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static void visitConstructor(ClassWriter cw) {
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    private static String getDescriptor(String type) {
+        return "int[]".equals(type) ? "[I" : "I";
+    }
+
+    /**
+     * {@link AarIndex} files of the embedded aars
+     */
+    @InputFiles
+    @PathSensitive(PathSensitivity.NONE)
+    public ConfigurableFileCollection getLibraryIndexes() {
+        return mLibraryIndexes;
+    }
+
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    public File getLocalSymbolFile() {
+        return mLocalSymbolFile;
+    }
+
+    public void setLocalSymbolFile(File localSymbolFile) {
+        this.mLocalSymbolFile = localSymbolFile;
+    }
+
+    /**
+     * package of the main module's R class
+     */
+    @Input
+    public String getTargetPackage() {
+        return mTargetPackage;
+    }
+
+    public void setTargetPackage(String targetPackage) {
+        this.mTargetPackage = targetPackage;
+    }
+
+    @OutputFile
+    public File getOutputFile() {
+        return mOutputFile;
+    }
+
+    public void setOutputFile(File outputFile) {
+        this.mOutputFile = outputFile;
+    }
+}
@@ -8,6 +8,15 @@ import com.android.utils.ILogger;
 
 import org.apache.tools.ant.BuildException;
 import org.gradle.api.DefaultTask;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.TaskAction;
 
 import java.io.BufferedWriter;
@@ -15,23 +24,30 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
  * ManifestMerger for Library
+ * <p>
+ * Merges the manifests of the embedded aars into a separate output, so the output of AGP is never modified,
+ * and the task is up-to-date if no manifest changed. On AGP 7+ the task transforms the merged manifest artifact
+ * of AGP, see {@link MergedManifestTransform}. Otherwise its output replaces the manifest of the aar when re-bundling.
  */
+@CacheableTask
 public class LibraryManifestMerger extends DefaultTask {
 
     private String mGradlePluginVersion;
 
     private String mGradleVersion;
 
-    private File mMainManifestFile;
+    private final RegularFileProperty mMainManifest = getProject().getObjects().fileProperty();
 
     private List<File> mSecondaryManifestFiles;
 
-    private File mOutputFile;
+    private final RegularFileProperty mMergedManifest = getProject().getObjects().fileProperty();
 
     public void setGradlePluginVersion(String gradlePluginVersion) {
         mGradlePluginVersion = gradlePluginVersion;
@@ -41,9 +57,26 @@ public class LibraryManifestMerger extends DefaultTask {
         mGradleVersion = gradleVersion;
     }
 
+    @TaskAction
     protected void doTaskAction() {
+        File mainManifestFile = mMainManifest.get().getAsFile();
+        File outputFile = mMergedManifest.get().getAsFile();
         try {
-            doFullTaskAction();
+            if (getSecondaryManifestFiles() == null || getSecondaryManifestFiles().isEmpty()) {
+                // the variant embeds no aar
+                Files.copy(mainManifestFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                doMerge(mainManifestFile, getSecondaryManifestFiles(), outputFile, getLogger());
+            }
+            TaskMetrics metrics = new TaskMetrics().read(1, mainManifestFile.length());
+            if (getSecondaryManifestFiles() != null) {
+                for (File file : getSecondaryManifestFiles()) {
+                    if (file.exists()) {
+                        metrics.read(1, file.length());
+                    }
+                }
+            }
+            metrics.written(1, outputFile.length()).write(getTemporaryDir());
         } catch (Exception e) {
             System.out.println("Gradle Plugin Version:" + mGradlePluginVersion);
             System.out.println("Gradle Version:" + mGradleVersion);
@@ -51,12 +84,13 @@ public class LibraryManifestMerger extends DefaultTask {
         }
     }
 
-    @TaskAction
-    protected void doFullTaskAction() throws ManifestMerger2.MergeFailureException, IOException {
-        ILogger iLogger = new LoggerWrapper(getLogger());
+    private static void doMerge(File mainManifestFile,
+                                List<File> secondaryManifestFiles,
+                                File outputFile,
+                                Logger logger) throws ManifestMerger2.MergeFailureException, IOException {
+        ILogger iLogger = new LoggerWrapper(logger);
         ManifestMerger2.Invoker mergerInvoker = ManifestMerger2.
-                newMerger(getMainManifestFile(), iLogger, ManifestMerger2.MergeType.LIBRARY);
-        List<File> secondaryManifestFiles = getSecondaryManifestFiles();
+                newMerger(mainManifestFile, iLogger, ManifestMerger2.MergeType.LIBRARY);
         List<ManifestProvider> manifestProviders = new ArrayList<>();
         if (secondaryManifestFiles != null) {
             for (final File file : secondaryManifestFiles) {
@@ -79,14 +113,14 @@ public class LibraryManifestMerger extends DefaultTask {
         mergerInvoker.addManifestProviders(manifestProviders);
         MergingReport mergingReport = mergerInvoker.merge();
         if (mergingReport.getResult().isError()) {
-            getLogger().error(mergingReport.getReportString());
+            logger.error(mergingReport.getReportString());
             mergingReport.log(iLogger);
             throw new BuildException(mergingReport.getReportString());
         }
 
         // fix utf-8 problem in windows
         BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
-                new FileOutputStream(getOutputFile()), "UTF-8")
+                new FileOutputStream(outputFile), "UTF-8")
         );
         writer.append(mergingReport
                 .getMergedDocument(MergingReport.MergedManifestKind.MERGED));
@@ -94,14 +128,27 @@ public class LibraryManifestMerger extends DefaultTask {
         writer.close();
     }
 
-    public File getMainManifestFile() {
-        return mMainManifestFile;
+    @Internal
+    public String getGradlePluginVersion() {
+        return mGradlePluginVersion;
+    }
+
+    @Internal
+    public String getGradleVersion() {
+        return mGradleVersion;
     }
 
-    public void setMainManifestFile(File mainManifestFile) {
-        this.mMainManifestFile = mainManifestFile;
+    /**
+     * Manifest processed by AGP, it is not modified.
+     */
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    public RegularFileProperty getMainManifest() {
+        return mMainManifest;
     }
 
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
     public List<File> getSecondaryManifestFiles() {
         return mSecondaryManifestFiles;
     }
@@ -110,11 +157,8 @@ public class LibraryManifestMerger extends DefaultTask {
         this.mSecondaryManifestFiles = secondaryManifestFiles;
     }
 
-    public File getOutputFile() {
-        return mOutputFile;
-    }
-
-    public void setOutputFile(File outputFile) {
-        this.mOutputFile = outputFile;
+    @OutputFile
+    public RegularFileProperty getMergedManifest() {
+        return mMergedManifest;
     }
 }
@@ -0,0 +1,663 @@
+package com.kezong.fataar;
+
+import com.android.utils.FileUtils;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.FileType;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.work.FileChange;
+import org.gradle.work.Incremental;
+import org.gradle.work.InputChanges;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Merge classes of embedded aars and jars into one folder.
+ * <p>
+ * classes.jar and local jars of the aars are streamed from the aars, they are not extracted into
+ * the exploded folders and no intermediate jar is written.
+ * <p>
+ * The task remembers which entries came from which jar, so only the entries of the changed jars
+ * are removed or extracted again.
+ * <p>
+ * Entries of the same name are compared by the crc and size recorded in the jar, and by SHA-256 of the content
+ * when those match. Identical duplicates are extracted only once. When several jars contain the same entry
+ * with different content, the last one wins,
+ * conflicting classes are reported according to {@link DuplicatePolicy}.
+ * The output is registered to the variant as the bytecode generated after javac, see VariantProcessor.
+ */
+@CacheableTask
+public class MergeClassesTask extends DefaultTask {
+
+    private static final String META_INF = "META-INF/";
+
+    private static final String MANIFEST_JAR_PREFIX = "jar:";
+
+    private static final String CLASS_SUFFIX = ".class";
+
+    private static final String CLASSES_JAR = "classes.jar";
+
+    private static final String LIBS = "libs/";
+
+    /**
+     * separates the path of aar and the jar in it, as in jar urls
+     */
+    private static final String NESTED_SEPARATOR = "!/";
+
+    private final ConfigurableFileCollection mAars = getProject().files();
+
+    private final ConfigurableFileCollection mLibsJars = getProject().files();
+
+    private boolean mMergeAarLibs;
+
+    private Provider<?> mWorkerPool;
+
+    private File mOutputDir;
+
+    private File mEntriesManifest;
+
+    private DuplicatePolicy mDuplicatePolicy = DuplicatePolicy.WARN;
+
+    @TaskAction
+    public void merge(InputChanges inputChanges) throws IOException, InterruptedException {
+        Map<String, List<JarEntryInfo>> previousEntries = new LinkedHashMap<>();
+        Set<File> changedFiles = new HashSet<>();
+        if (inputChanges.isIncremental()) {
+            previousEntries = readEntriesManifest();
+            collectChangedFiles(inputChanges, getAars(), changedFiles);
+            collectChangedFiles(inputChanges, getLibsJars(), changedFiles);
+        } else {
+            FileUtils.cleanOutputDir(getOutputDir());
+        }
+
+        List<JarSource> jars = listJars();
+        Set<String> changedJars = new HashSet<>();
+        for (JarSource jar : jars) {
+            if (changedFiles.contains(jar.mFile) || !previousEntries.containsKey(jar.mKey)) {
+                changedJars.add(jar.mKey);
+            }
+        }
+
+        ExecutorService sharedExecutor = getSharedExecutor();
+        ExecutorService executor = sharedExecutor != null
+                ? sharedExecutor : WorkerPools.newPool(Runtime.getRuntime().availableProcessors());
+        try {
+            Map<String, JarSource> jarsByKey = new HashMap<>();
+            for (JarSource jar : jars) {
+                jarsByKey.put(jar.mKey, jar);
+            }
+            Map<String, List<JarEntryInfo>> currentEntries = listEntries(executor, jars, changedJars, previousEntries);
+            Map<String, String> previousOwners = resolveOwners(previousEntries, null);
+            hashCandidates(executor, jarsByKey, currentEntries);
+            DuplicateReport report = new DuplicateReport("classes");
+            Map<String, String> currentOwners = resolveOwners(currentEntries, report);
+            report.report(getLogger(), getDuplicatePolicy());
+            TaskMetrics metrics = new TaskMetrics();
+            metrics.add(TaskMetrics.DUPLICATE_BYTES_AVOIDED, report.getIdenticalBytes());
+            for (JarSource jar : jars) {
+                if (changedJars.contains(jar.mKey)) {
+                    metrics.read(1, jar.mSize);
+                }
+            }
+
+            Map<JarSource, Set<String>> entriesToExtract = new LinkedHashMap<>();
+            for (String entry : previousOwners.keySet()) {
+                if (!currentOwners.containsKey(entry)) {
+                    deleteEntry(entry);
+                }
+            }
+            for (Map.Entry<String, String> owner : currentOwners.entrySet()) {
+                String jarKey = owner.getValue();
+                if (changedJars.contains(jarKey) || !jarKey.equals(previousOwners.get(owner.getKey()))) {
+                    entriesToExtract.computeIfAbsent(jarsByKey.get(jarKey), it -> new HashSet<>()).add(owner.getKey());
+                }
+            }
+
+            getLogger().info("[fat-aar]Merge classes, " + changedJars.size() + " changed jars, "
+                    + entriesToExtract.size() + " jars to extract");
+            extractEntries(executor, entriesToExtract, metrics);
+            writeEntriesManifest(currentEntries);
+            metrics.write(getTemporaryDir());
+        } finally {
+            if (executor != sharedExecutor) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * @return the pool shared by the build, null if build services are not supported
+     */
+    private ExecutorService getSharedExecutor() {
+        // FatAarWorkerPool is only loaded when the service is set, gradle before 6.1 does not have build services
+        return mWorkerPool == null ? null : ((FatAarWorkerPool) mWorkerPool.get()).getExecutor();
+    }
+
+    /**
+     * classes.jar of the aars first, then the local jars of the aars and the other jars,
+     * the same order as the jars were extracted before.
+     * Only the central directory of the aars is read here.
+     */
+    private List<JarSource> listJars() throws IOException {
+        List<JarSource> classesJars = new ArrayList<>();
+        List<JarSource> libsJars = new ArrayList<>();
+        Set<String> usedKeys = new HashSet<>();
+        for (File aar : getAars()) {
+            if (!aar.isFile()) {
+                continue;
+            }
+            String aarKey = uniqueKey(aar, usedKeys);
+            try (ZipFile zipFile = new ZipFile(aar)) {
+                ZipEntry classesJar = zipFile.getEntry(CLASSES_JAR);
+                if (classesJar != null) {
+                    classesJars.add(new JarSource(aar, aarKey, CLASSES_JAR, classesJar.getSize(), false));
+                }
+                if (!isMergeAarLibs()) {
+                    continue;
+                }
+                List<JarSource> localJars = new ArrayList<>();
+                Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+                while (zipEntries.hasMoreElements()) {
+                    ZipEntry zipEntry = zipEntries.nextElement();
+                    String name = zipEntry.getName();
+                    if (name.startsWith(LIBS) && name.endsWith(".jar") && name.indexOf('/', LIBS.length()) < 0) {
+                        localJars.add(new JarSource(aar, aarKey, name, zipEntry.getSize(), true));
+                    }
+                }
+                localJars.sort(Comparator.comparing(jar -> jar.mEntryName));
+                libsJars.addAll(localJars);
+            }
+        }
+        for (File jar : getLibsJars()) {
+            if (jar.isFile()) {
+                libsJars.add(new JarSource(jar, uniqueKey(jar, usedKeys), null, jar.length(), true));
+            }
+        }
+        List<JarSource> jars = new ArrayList<>(classesJars);
+        jars.addAll(libsJars);
+        return jars;
+    }
+
+    /**
+     * The key of a file in the entries manifest is its name, the same as the relative path sensitivity
+     * of the inputs, so the manifest stays valid when the build is relocated or restored from cache.
+     * The files of the same name get a suffix in the order of the inputs.
+     */
+    private static String uniqueKey(File file, Set<String> usedKeys) {
+        String key = file.getName();
+        for (int i = 2; !usedKeys.add(key); i++) {
+            key = file.getName() + "#" + i;
+        }
+        return key;
+    }
+
+    private static void collectChangedFiles(InputChanges inputChanges,
+                                            ConfigurableFileCollection files,
+                                            Set<File> changedFiles) {
+        for (FileChange change : inputChanges.getFileChanges(files)) {
+            if (change.getFileType() != FileType.DIRECTORY) {
+                changedFiles.add(change.getFile());
+            }
+        }
+    }
+
+    /**
+     * list entries of the changed jars, the unchanged ones are read from the manifest.
+     * @return jar key to entries, in the order of jars
+     */
+    private Map<String, List<JarEntryInfo>> listEntries(ExecutorService executor,
+                                                  List<JarSource> jars,
+                                                  Set<String> changedJars,
+                                                  Map<String, List<JarEntryInfo>> previousEntries)
+            throws IOException, InterruptedException {
+        Map<String, Future<List<JarEntryInfo>>> futures = new LinkedHashMap<>();
+        for (JarSource jar : jars) {
+            if (!changedJars.contains(jar.mKey)) {
+                futures.put(jar.mKey, null);
+                continue;
+            }
+            futures.put(jar.mKey, executor.submit(jar::listEntries));
+        }
+        List<Future<List<JarEntryInfo>>> submitted = new ArrayList<>();
+        for (Future<List<JarEntryInfo>> future : futures.values()) {
+            if (future != null) {
+                submitted.add(future);
+            }
+        }
+        // the rest is cancelled if one fails, the pool is shared with other tasks
+        WorkerPools.awaitAll(submitted);
+
+        Map<String, List<JarEntryInfo>> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Future<List<JarEntryInfo>>> future : futures.entrySet()) {
+            if (future.getValue() == null) {
+                result.put(future.getKey(), previousEntries.get(future.getKey()));
+            } else {
+                result.put(future.getKey(), getResult(future.getValue()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Entries of the same name, crc and size in several jars are hashed, to tell whether the content is identical.
+     * The hashes are kept in the entries manifest, so the entries of the unchanged jars are not hashed again.
+     */
+    private static void hashCandidates(ExecutorService executor,
+                                       Map<String, JarSource> jarsByKey,
+                                       Map<String, List<JarEntryInfo>> entriesOfJars)
+            throws IOException, InterruptedException {
+        Map<String, List<JarEntryInfo>> entriesByName = new HashMap<>();
+        for (List<JarEntryInfo> entries : entriesOfJars.values()) {
+            for (JarEntryInfo entry : entries) {
+                entriesByName.computeIfAbsent(entry.mName, it -> new ArrayList<>()).add(entry);
+            }
+        }
+        Map<String, Map<String, JarEntryInfo>> entriesToHash = new LinkedHashMap<>();
+        for (Map.Entry<String, List<JarEntryInfo>> entries : entriesOfJars.entrySet()) {
+            for (JarEntryInfo entry : entries.getValue()) {
+                if (entry.mDigest != null) {
+                    continue;
+                }
+                for (JarEntryInfo other : entriesByName.get(entry.mName)) {
+                    if (other != entry && entry.hasSameCrcAndSize(other)) {
+                        entriesToHash.computeIfAbsent(entries.getKey(), it -> new HashMap<>()).put(entry.mName, entry);
+                        break;
+                    }
+                }
+            }
+        }
+        List<Future<?>> futures = new ArrayList<>();
+        for (Map.Entry<String, Map<String, JarEntryInfo>> entries : entriesToHash.entrySet()) {
+            futures.add(executor.submit(() -> {
+                jarsByKey.get(entries.getKey()).hashEntries(entries.getValue());
+                return null;
+            }));
+        }
+        WorkerPools.awaitAll(futures);
+    }
+
+    /**
+     * @param report collects the duplicates, nullable
+     * @return entry to the path of the jar which provides it.
+     * The first jar keeps identical entries, the last jar wins if the content differs.
+     */
+    private static Map<String, String> resolveOwners(Map<String, List<JarEntryInfo>> entriesOfJars, DuplicateReport report) {
+        Map<String, String> owners = new HashMap<>();
+        Map<String, JarEntryInfo> ownerEntries = new HashMap<>();
+        for (Map.Entry<String, List<JarEntryInfo>> entries : entriesOfJars.entrySet()) {
+            for (JarEntryInfo entry : entries.getValue()) {
+                JarEntryInfo previous = ownerEntries.get(entry.mName);
+                if (previous != null && previous.isSameContent(entry)) {
+                    if (report != null) {
+                        report.addIdentical(entry.mSize);
+                    }
+                    continue;
+                }
+                if (previous != null && report != null && entry.mName.endsWith(CLASS_SUFFIX)) {
+                    report.addConflict(entry.mName, owners.get(entry.mName), entries.getKey());
+                }
+                owners.put(entry.mName, entries.getKey());
+                ownerEntries.put(entry.mName, entry);
+            }
+        }
+        return owners;
+    }
+
+    private void extractEntries(ExecutorService executor, Map<JarSource, Set<String>> entriesToExtract, TaskMetrics metrics)
+            throws IOException, InterruptedException {
+        File outputDir = getOutputDir();
+        List<Future<?>> futures = new ArrayList<>();
+        for (Map.Entry<JarSource, Set<String>> entries : entriesToExtract.entrySet()) {
+            futures.add(executor.submit(() -> {
+                entries.getKey().extractEntries(entries.getValue(), outputDir, metrics);
+                return null;
+            }));
+        }
+        WorkerPools.awaitAll(futures);
+    }
+
+    private void deleteEntry(String entry) throws IOException {
+        Files.deleteIfExists(FatFiles.resolveEntry(getOutputDir(), entry).toPath());
+    }
+
+    private Map<String, List<JarEntryInfo>> readEntriesManifest() throws IOException {
+        Map<String, List<JarEntryInfo>> entries = new LinkedHashMap<>();
+        File manifest = getEntriesManifest();
+        if (!manifest.isFile()) {
+            return entries;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(manifest.toPath(), StandardCharsets.UTF_8)) {
+            List<JarEntryInfo> current = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(MANIFEST_JAR_PREFIX)) {
+                    current = new ArrayList<>();
+                    entries.put(line.substring(MANIFEST_JAR_PREFIX.length()), current);
+                } else if (current != null && !line.isEmpty()) {
+                    current.add(JarEntryInfo.parse(line));
+                }
+            }
+        }
+        return entries;
+    }
+
+    private void writeEntriesManifest(Map<String, List<JarEntryInfo>> entries) throws IOException {
+        File manifest = getEntriesManifest();
+        FileUtils.mkdirs(manifest.getParentFile());
+        try (BufferedWriter writer = Files.newBufferedWriter(manifest.toPath(), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, List<JarEntryInfo>> jarEntries : entries.entrySet()) {
+                writer.write(MANIFEST_JAR_PREFIX);
+                writer.write(jarEntries.getKey());
+                writer.newLine();
+                for (JarEntryInfo entry : jarEntries.getValue()) {
+                    writer.write(entry.toString());
+                    writer.newLine();
+                }
+            }
+        }
+    }
+
+    private static <T> T getResult(Future<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Applied to the classes with the same name but different content.
+     */
+    @Input
+    public DuplicatePolicy getDuplicatePolicy() {
+        return mDuplicatePolicy;
+    }
+
+    public void setDuplicatePolicy(DuplicatePolicy duplicatePolicy) {
+        this.mDuplicatePolicy = duplicatePolicy;
+    }
+
+    /**
+     * The embedded aars, all entries of classes.jar will be merged.
+     */
+    @Incremental
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public ConfigurableFileCollection getAars() {
+        return mAars;
+    }
+
+    /**
+     * Whether local jars of the aars are merged too, entries in META-INF are excluded.
+     */
+    @Input
+    public boolean isMergeAarLibs() {
+        return mMergeAarLibs;
+    }
+
+    public void setMergeAarLibs(boolean mergeAarLibs) {
+        this.mMergeAarLibs = mergeAarLibs;
+    }
+
+    /**
+     * The embedded jars, entries in META-INF are excluded.
+     */
+    @Incremental
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public ConfigurableFileCollection getLibsJars() {
+        return mLibsJars;
+    }
+
+    /**
+     * The provider of {@link FatAarWorkerPool}, the service is used by the task, see Task#usesService.
+     * Nullable, a pool is created for the run if not set.
+     */
+    @Internal
+    public Provider<?> getWorkerPool() {
+        return mWorkerPool;
+    }
+
+    public void setWorkerPool(Provider<?> workerPool) {
+        this.mWorkerPool = workerPool;
+    }
+
+    @OutputDirectory
+    public File getOutputDir() {
+        return mOutputDir;
+    }
+
+    public void setOutputDir(File outputDir) {
+        this.mOutputDir = outputDir;
+    }
+
+    /**
+     * Records the entries of each jar, used for incremental merging.
+     */
+    @OutputFile
+    public File getEntriesManifest() {
+        return mEntriesManifest;
+    }
+
+    public void setEntriesManifest(File entriesManifest) {
+        this.mEntriesManifest = entriesManifest;
+    }
+
+    /**
+     * A jar to merge, a file or a jar in an aar which is streamed without being extracted.
+     * Recorded in the entries manifest by its key, {@code lib.aar!/classes.jar} for the jars in aars.
+     */
+    private static final class JarSource {
+
+        private final File mFile;
+
+        /**
+         * the jar in the aar, null if the file is the jar
+         */
+        private final String mEntryName;
+
+        private final String mKey;
+
+        private final long mSize;
+
+        private final boolean mExcludeMetaInf;
+
+        JarSource(File file, String fileKey, String entryName, long size, boolean excludeMetaInf) {
+            this.mFile = file;
+            this.mEntryName = entryName;
+            this.mKey = entryName == null ? fileKey : fileKey + NESTED_SEPARATOR + entryName;
+            this.mSize = size;
+            this.mExcludeMetaInf = excludeMetaInf;
+        }
+
+        private boolean isIncluded(ZipEntry zipEntry) {
+            return !zipEntry.isDirectory() && !(mExcludeMetaInf && zipEntry.getName().startsWith(META_INF));
+        }
+
+        List<JarEntryInfo> listEntries() throws IOException {
+            List<JarEntryInfo> entries = new ArrayList<>();
+            if (mEntryName == null) {
+                try (ZipFile zipFile = new ZipFile(mFile)) {
+                    Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+                    while (zipEntries.hasMoreElements()) {
+                        ZipEntry zipEntry = zipEntries.nextElement();
+                        if (isIncluded(zipEntry)) {
+                            // crc and size are read from the central directory, nothing is decompressed
+                            entries.add(new JarEntryInfo(zipEntry.getName(), zipEntry.getCrc(), zipEntry.getSize()));
+                        }
+                    }
+                }
+                return entries;
+            }
+            try (ZipFile zipFile = new ZipFile(mFile);
+                 ZipInputStream inputStream = openNested(zipFile)) {
+                ZipEntry zipEntry;
+                while ((zipEntry = inputStream.getNextEntry()) != null) {
+                    if (!isIncluded(zipEntry)) {
+                        continue;
+                    }
+                    // with a data descriptor, crc and size are known after the entry is read
+                    if (zipEntry.getCrc() == -1 || zipEntry.getSize() == -1) {
+                        inputStream.skip(Long.MAX_VALUE);
+                    }
+                    entries.add(new JarEntryInfo(zipEntry.getName(), zipEntry.getCrc(), zipEntry.getSize()));
+                }
+            }
+            return entries;
+        }
+
+        void extractEntries(Set<String> entries, File outputDir, TaskMetrics metrics) throws IOException {
+            if (mEntryName == null) {
+                try (ZipFile zipFile = new ZipFile(mFile)) {
+                    for (String entry : entries) {
+                        try (InputStream inputStream = zipFile.getInputStream(zipFile.getEntry(entry))) {
+                            extractEntry(inputStream, entry, outputDir, metrics);
+                        }
+                    }
+                }
+                return;
+            }
+            try (ZipFile zipFile = new ZipFile(mFile);
+                 ZipInputStream inputStream = openNested(zipFile)) {
+                ZipEntry zipEntry;
+                while ((zipEntry = inputStream.getNextEntry()) != null) {
+                    if (!zipEntry.isDirectory() && entries.contains(zipEntry.getName())) {
+                        extractEntry(inputStream, zipEntry.getName(), outputDir, metrics);
+                    }
+                }
+            }
+        }
+
+        /**
+         * @param entries name to the entry, whose digest is set
+         */
+        void hashEntries(Map<String, JarEntryInfo> entries) throws IOException {
+            if (mEntryName == null) {
+                try (ZipFile zipFile = new ZipFile(mFile)) {
+                    for (JarEntryInfo entry : entries.values()) {
+                        try (InputStream inputStream = zipFile.getInputStream(zipFile.getEntry(entry.mName))) {
+                            entry.mDigest = FatFiles.toHex(FatFiles.sha256(inputStream));
+                        }
+                    }
+                }
+                return;
+            }
+            try (ZipFile zipFile = new ZipFile(mFile);
+                 ZipInputStream inputStream = openNested(zipFile)) {
+                ZipEntry zipEntry;
+                while ((zipEntry = inputStream.getNextEntry()) != null) {
+                    JarEntryInfo entry = entries.get(zipEntry.getName());
+                    if (!zipEntry.isDirectory() && entry != null) {
+                        entry.mDigest = FatFiles.toHex(FatFiles.sha256(inputStream));
+                    }
+                }
+            }
+        }
+
+        private ZipInputStream openNested(ZipFile zipFile) throws IOException {
+            ZipEntry nested = zipFile.getEntry(mEntryName);
+            if (nested == null) {
+                throw new IOException(mEntryName + " not found in " + mFile);
+            }
+            return new ZipInputStream(new BufferedInputStream(zipFile.getInputStream(nested)));
+        }
+
+        private static void extractEntry(InputStream inputStream, String entry, File outputDir, TaskMetrics metrics)
+                throws IOException {
+            File target = FatFiles.resolveEntry(outputDir, entry);
+            FileUtils.mkdirs(target.getParentFile());
+            metrics.written(1, Files.copy(inputStream, target.toPath(), StandardCopyOption.REPLACE_EXISTING));
+        }
+    }
+
+    /**
+     * An entry of jar, recorded in the entries manifest as {@code name crc:size},
+     * followed by {@code :sha256} if the entry was hashed.
+     */
+    private static final class JarEntryInfo {
+
+        private final String mName;
+
+        private final long mCrc;
+
+        private final long mSize;
+
+        /**
+         * hex of SHA-256, only set for the entries which share the crc and size with an entry of another jar
+         */
+        private String mDigest;
+
+        JarEntryInfo(String name, long crc, long size) {
+            this.mName = name;
+            this.mCrc = crc;
+            this.mSize = size;
+        }
+
+        static JarEntryInfo parse(String line) {
+            int separator = line.lastIndexOf(' ');
+            String[] values = line.substring(separator + 1).split(":");
+            if (separator < 0 || values.length < 2) {
+                return new JarEntryInfo(line, -1, -1);
+            }
+            JarEntryInfo entry = new JarEntryInfo(line.substring(0, separator),
+                    Long.parseLong(values[0], 16), Long.parseLong(values[1]));
+            if (values.length > 2) {
+                entry.mDigest = values[2];
+            }
+            return entry;
+        }
+
+        boolean hasSameCrcAndSize(JarEntryInfo other) {
+            return mCrc != -1 && mSize != -1 && mCrc == other.mCrc && mSize == other.mSize;
+        }
+
+        /**
+         * Crc and size may collide, the content is identical only if the hashes are equal too.
+         */
+        boolean isSameContent(JarEntryInfo other) {
+            return hasSameCrcAndSize(other) && mDigest != null && mDigest.equals(other.mDigest);
+        }
+
+        @Override
+        public String toString() {
+            String value = mName + " " + Long.toHexString(mCrc) + ":" + mSize;
+            return mDigest == null ? value : value + ":" + mDigest;
+        }
+    }
+}
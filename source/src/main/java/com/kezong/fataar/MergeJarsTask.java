@@ -0,0 +1,341 @@
+package com.kezong.fataar;
+
+import com.android.utils.FileUtils;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.GregorianCalendar;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+
+/**
+ * Collect local jars of the embedded aars and the embedded jars into one folder,
+ * which is packaged into libs/ of the aar.
+ * <p>
+ * Only used when minify is disabled, otherwise the jars are merged into classes.
+ * If consolidate is enabled, the jars are merged into {@link #CONSOLIDATED_JAR_NAME} instead,
+ * so the consumers process one jar rather than one per library.
+ */
+@CacheableTask
+public class MergeJarsTask extends DefaultTask {
+
+    static final String CONSOLIDATED_JAR_NAME = "fat-aar-libs.jar";
+
+    /**
+     * Same as the timestamp used by gradle when preserveFileTimestamps is false.
+     */
+    private static final long CONSTANT_TIME_FOR_ZIP_ENTRIES =
+            new GregorianCalendar(1980, 1, 1, 0, 0, 0).getTimeInMillis();
+
+    private static final String META_INF = "META-INF/";
+
+    private static final String SERVICES = "META-INF/services/";
+
+    private final ConfigurableFileCollection mJars = getProject().files();
+
+    private File mOutputDir;
+
+    private boolean mConsolidate;
+
+    private DuplicatePolicy mDuplicatePolicy = DuplicatePolicy.WARN;
+
+    @TaskAction
+    public void merge() throws IOException {
+        File outputDir = getOutputDir();
+        FileUtils.cleanOutputDir(outputDir);
+        List<File> jars = new ArrayList<>();
+        TaskMetrics metrics = new TaskMetrics();
+        for (File jar : orderJars(getJars())) {
+            if (!jar.isFile()) {
+                getLogger().info("[fat-aar][warning]" + jar + " not found!");
+                continue;
+            }
+            jars.add(jar);
+            metrics.read(1, jar.length());
+        }
+        Map<File, String> hashes = hashSameNameJars(jars);
+
+        if (isConsolidate()) {
+            File outputJar = new File(outputDir, CONSOLIDATED_JAR_NAME);
+            consolidate(jars, outputJar, metrics);
+            metrics.written(1, outputJar.length());
+        } else {
+            DuplicateReport report = new DuplicateReport("jars");
+            Map<String, File> jarsByName = new HashMap<>();
+            for (File jar : jars) {
+                File previous = jarsByName.put(jar.getName(), jar);
+                if (previous != null && !hashes.get(previous).equals(hashes.get(jar))) {
+                    report.addConflict(jar.getName(), previous, jar);
+                }
+            }
+            report.report(getLogger(), getDuplicatePolicy());
+            // in the declared order, the later jar of the same name wins
+            for (File jar : jars) {
+                getLogger().info("[fat-aar]Copy jar from: " + jar);
+                Files.copy(jar.toPath(), new File(outputDir, jar.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+                metrics.written(1, jar.length());
+            }
+        }
+        metrics.write(getTemporaryDir());
+    }
+
+    /**
+     * The declared order, except the jars of one folder, such as libs/ of an aar, are listed by the file tree
+     * in the order of the file system. They are sorted by name, so the result is the same on every machine.
+     */
+    private static List<File> orderJars(Iterable<File> files) {
+        Map<File, List<File>> jarsByFolder = new LinkedHashMap<>();
+        for (File file : files) {
+            jarsByFolder.computeIfAbsent(file.getParentFile(), it -> new ArrayList<>()).add(file);
+        }
+        List<File> jars = new ArrayList<>();
+        for (List<File> folderJars : jarsByFolder.values()) {
+            folderJars.sort(Comparator.comparing(File::getName));
+            jars.addAll(folderJars);
+        }
+        return jars;
+    }
+
+    /**
+     * @return jar to the hex of its SHA-256, only for the jars whose name is not unique
+     */
+    private static Map<File, String> hashSameNameJars(List<File> jars) throws IOException {
+        Map<String, Integer> nameCounts = new HashMap<>();
+        for (File jar : jars) {
+            nameCounts.merge(jar.getName(), 1, Integer::sum);
+        }
+        Map<File, String> hashes = new HashMap<>();
+        for (File jar : jars) {
+            if (nameCounts.get(jar.getName()) > 1) {
+                try (InputStream inputStream = Files.newInputStream(jar.toPath())) {
+                    hashes.put(jar, FatFiles.toHex(FatFiles.sha256(inputStream)));
+                }
+            }
+        }
+        return hashes;
+    }
+
+    /**
+     * Entries are written in name order with a constant timestamp, so the jar is reproducible.
+     * Compressed bytes are copied as they are. Entries of the same crc and size are hashed to tell whether
+     * the content is identical. Identical entries are written once, the later jar wins if the content differs.
+     * Service files are concatenated.
+     */
+    private void consolidate(List<File> jars, File outputJar, TaskMetrics metrics) throws IOException {
+        List<ZipFile> zipFiles = new ArrayList<>();
+        try {
+            Map<String, JarEntrySource> entries = new TreeMap<>();
+            Map<String, Set<String>> services = new TreeMap<>();
+            DuplicateReport report = new DuplicateReport("jars");
+            for (File jar : jars) {
+                getLogger().info("[fat-aar]Consolidate jar: " + jar);
+                ZipFile zipFile = new ZipFile(jar);
+                zipFiles.add(zipFile);
+                Enumeration<ZipArchiveEntry> zipEntries = zipFile.getEntriesInPhysicalOrder();
+                while (zipEntries.hasMoreElements()) {
+                    ZipArchiveEntry entry = zipEntries.nextElement();
+                    String name = entry.getName();
+                    if (entry.isDirectory() || isExcluded(name)) {
+                        continue;
+                    }
+                    if (name.startsWith(SERVICES) && name.indexOf('/', SERVICES.length()) < 0) {
+                        readServices(zipFile, entry, services.computeIfAbsent(name, it -> new LinkedHashSet<>()));
+                        continue;
+                    }
+                    JarEntrySource previous = entries.get(name);
+                    JarEntrySource current = new JarEntrySource(jar, zipFile, entry);
+                    if (previous != null) {
+                        if (previous.isSameContent(current)) {
+                            report.addIdentical(entry.getSize());
+                            continue;
+                        }
+                        if (name.endsWith(".class")) {
+                            report.addConflict(name, previous.mJar.getName(), jar.getName());
+                        }
+                    }
+                    entries.put(name, current);
+                }
+            }
+            report.report(getLogger(), getDuplicatePolicy());
+            metrics.add(TaskMetrics.DUPLICATE_BYTES_AVOIDED, report.getIdenticalBytes());
+
+            try (ZipArchiveOutputStream outputStream = new ZipArchiveOutputStream(outputJar)) {
+                for (Map.Entry<String, JarEntrySource> entry : entries.entrySet()) {
+                    JarEntrySource source = entry.getValue();
+                    ZipArchiveEntry copy = new ZipArchiveEntry(entry.getKey());
+                    copy.setMethod(source.mEntry.getMethod());
+                    copy.setCrc(source.mEntry.getCrc());
+                    copy.setSize(source.mEntry.getSize());
+                    copy.setCompressedSize(source.mEntry.getCompressedSize());
+                    copy.setTime(CONSTANT_TIME_FOR_ZIP_ENTRIES);
+                    try (InputStream rawStream = source.mZipFile.getRawInputStream(source.mEntry)) {
+                        outputStream.addRawArchiveEntry(copy, rawStream);
+                    }
+                }
+                for (Map.Entry<String, Set<String>> service : services.entrySet()) {
+                    ZipArchiveEntry entry = new ZipArchiveEntry(service.getKey());
+                    entry.setTime(CONSTANT_TIME_FOR_ZIP_ENTRIES);
+                    entry.setMethod(ZipEntry.DEFLATED);
+                    outputStream.putArchiveEntry(entry);
+                    outputStream.write((String.join("\n", service.getValue()) + "\n").getBytes(StandardCharsets.UTF_8));
+                    outputStream.closeArchiveEntry();
+                }
+            }
+            getLogger().info("[fat-aar]Consolidate " + jars.size() + " jars into " + outputJar.getName()
+                    + ", " + (entries.size() + services.size()) + " entries");
+        } finally {
+            for (ZipFile zipFile : zipFiles) {
+                zipFile.close();
+            }
+        }
+    }
+
+    /**
+     * The manifest and signatures of the original jars do not apply to the merged one,
+     * neither does module-info.
+     */
+    private static boolean isExcluded(String name) {
+        if (name.equals("module-info.class") || name.endsWith("/module-info.class")) {
+            return true;
+        }
+        if (!name.startsWith(META_INF) || name.indexOf('/', META_INF.length()) >= 0) {
+            return false;
+        }
+        String upperCase = name.toUpperCase(Locale.ROOT);
+        return upperCase.equals("META-INF/MANIFEST.MF")
+                || upperCase.endsWith(".SF")
+                || upperCase.endsWith(".RSA")
+                || upperCase.endsWith(".DSA")
+                || upperCase.endsWith(".EC");
+    }
+
+    private static void readServices(ZipFile zipFile, ZipArchiveEntry entry, Set<String> services) throws IOException {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(zipFile.getInputStream(entry), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    services.add(line);
+                }
+            }
+        }
+    }
+
+    /**
+     * In the embed order, the later jar wins if names or classes conflict, the same as {@link MergeClassesTask}.
+     * Fingerprinted as a classpath, so the order and the content are tracked, the names by {@link #getJarNames()}.
+     */
+    @Classpath
+    public ConfigurableFileCollection getJars() {
+        return mJars;
+    }
+
+    /**
+     * The jars are packaged by file name, which the classpath fingerprint ignores.
+     */
+    @Input
+    public List<String> getJarNames() {
+        List<String> names = new ArrayList<>();
+        for (File jar : orderJars(getJars())) {
+            names.add(jar.getName());
+        }
+        return names;
+    }
+
+    @OutputDirectory
+    public File getOutputDir() {
+        return mOutputDir;
+    }
+
+    public void setOutputDir(File outputDir) {
+        this.mOutputDir = outputDir;
+    }
+
+    /**
+     * Merge the jars into one jar rather than copy them.
+     */
+    @Input
+    public boolean isConsolidate() {
+        return mConsolidate;
+    }
+
+    public void setConsolidate(boolean consolidate) {
+        this.mConsolidate = consolidate;
+    }
+
+    /**
+     * Applied to the classes with the same name but different content when consolidate is enabled,
+     * otherwise to the jars with the same name but different content.
+     */
+    @Input
+    public DuplicatePolicy getDuplicatePolicy() {
+        return mDuplicatePolicy;
+    }
+
+    public void setDuplicatePolicy(DuplicatePolicy duplicatePolicy) {
+        this.mDuplicatePolicy = duplicatePolicy;
+    }
+
+    private static final class JarEntrySource {
+
+        private final File mJar;
+
+        private final ZipFile mZipFile;
+
+        private final ZipArchiveEntry mEntry;
+
+        /**
+         * SHA-256 of the content, computed when another entry has the same crc and size
+         */
+        private byte[] mDigest;
+
+        JarEntrySource(File jar, ZipFile zipFile, ZipArchiveEntry entry) {
+            this.mJar = jar;
+            this.mZipFile = zipFile;
+            this.mEntry = entry;
+        }
+
+        boolean isSameContent(JarEntrySource other) throws IOException {
+            return mEntry.getCrc() == other.mEntry.getCrc() && mEntry.getSize() == other.mEntry.getSize()
+                    && Arrays.equals(getDigest(), other.getDigest());
+        }
+
+        private byte[] getDigest() throws IOException {
+            if (mDigest == null) {
+                try (InputStream inputStream = mZipFile.getInputStream(mEntry)) {
+                    mDigest = FatFiles.sha256(inputStream);
+                }
+            }
+            return mDigest;
+        }
+    }
+}
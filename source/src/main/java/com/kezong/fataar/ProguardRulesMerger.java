@@ -0,0 +1,295 @@
+package com.kezong.fataar;
+
+import com.android.utils.FileUtils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Append the consumer proguard rules of the embedded aars to the rules merged by AGP.
+ * <p>
+ * Rules are tokenized, so the same rule written with different whitespace, line breaks or comments
+ * is appended only once, rules already in the output are skipped too.
+ * If collapse is enabled, -keepattributes are merged into one rule, and the classes of -dontwarn and -dontnote
+ * which are covered by a wildcard such as {@code com.foo.**} are removed. Rules with negated filters are kept as they are.
+ */
+public final class ProguardRulesMerger {
+
+    private static final String OPTION_IF = "-if";
+
+    private static final String OPTION_KEEP = "-keep";
+
+    private static final String OPTION_KEEP_ATTRIBUTES = "-keepattributes";
+
+    private static final String OPTION_DONT_WARN = "-dontwarn";
+
+    private static final String OPTION_DONT_NOTE = "-dontnote";
+
+    private static final String PUNCTUATION = "{};,()";
+
+    private final Set<String> mWrittenRules = new HashSet<>();
+
+    private int mDuplicateCount;
+
+    private ProguardRulesMerger() {
+    }
+
+    /**
+     * @param inputs proguard.txt of the embedded aars, missing files are ignored
+     * @param output the rules merged by AGP, the new rules are appended
+     * @return count of the rules left out
+     */
+    public static int merge(Collection<File> inputs, File output, boolean collapse) throws IOException {
+        ProguardRulesMerger merger = new ProguardRulesMerger();
+        List<Rule> existingRules = new ArrayList<>();
+        if (output.isFile()) {
+            existingRules = parse(new String(Files.readAllBytes(output.toPath()), StandardCharsets.UTF_8));
+        } else {
+            FileUtils.mkdirs(output.getParentFile());
+        }
+        for (Rule rule : existingRules) {
+            merger.mWrittenRules.add(rule.mKey);
+        }
+
+        try (BufferedWriter writer = Files.newBufferedWriter(output.toPath(), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            if (collapse) {
+                List<Rule> rules = new ArrayList<>();
+                for (File input : inputs) {
+                    if (input.isFile()) {
+                        rules.addAll(parse(new String(Files.readAllBytes(input.toPath()), StandardCharsets.UTF_8)));
+                    }
+                }
+                merger.writeCollapsed(writer, existingRules, rules);
+            } else {
+                for (File input : inputs) {
+                    if (input.isFile()) {
+                        merger.write(writer, parse(new String(Files.readAllBytes(input.toPath()), StandardCharsets.UTF_8)));
+                    }
+                }
+            }
+        }
+        return merger.mDuplicateCount;
+    }
+
+    private void write(BufferedWriter writer, List<Rule> rules) throws IOException {
+        for (Rule rule : rules) {
+            if (!mWrittenRules.add(rule.mKey)) {
+                mDuplicateCount++;
+                continue;
+            }
+            writer.newLine();
+            writer.write(rule.mText);
+        }
+        writer.newLine();
+    }
+
+    private void writeCollapsed(BufferedWriter writer, List<Rule> existingRules, List<Rule> rules) throws IOException {
+        Set<String> existingAttributes = new HashSet<>();
+        Map<String, Set<String>> wildcards = new HashMap<>();
+        for (Rule rule : existingRules) {
+            if (rule.isOption(OPTION_KEEP_ATTRIBUTES) && !rule.mText.contains("!")) {
+                existingAttributes.addAll(rule.getArguments());
+            }
+            collectWildcards(rule, wildcards);
+        }
+        for (Rule rule : rules) {
+            collectWildcards(rule, wildcards);
+        }
+
+        Set<String> attributes = new LinkedHashSet<>();
+        List<Rule> collapsed = new ArrayList<>();
+        for (Rule rule : rules) {
+            if (rule.getArguments().isEmpty()) {
+                // without arguments the option applies to all
+                collapsed.add(rule);
+                continue;
+            }
+            // negations apply in order within one filter, while separate rules are or-ed,
+            // so rules with negations are not joined
+            if (rule.isOption(OPTION_KEEP_ATTRIBUTES) && !rule.mText.contains("!")) {
+                int size = attributes.size();
+                for (String attribute : rule.getArguments()) {
+                    if (!existingAttributes.contains(attribute)) {
+                        attributes.add(attribute);
+                    }
+                }
+                mDuplicateCount += attributes.size() == size ? 1 : 0;
+                continue;
+            }
+            if ((rule.isOption(OPTION_DONT_WARN) || rule.isOption(OPTION_DONT_NOTE)) && !rule.mText.contains("!")) {
+                Set<String> optionWildcards = wildcards.getOrDefault(rule.mTokens.get(0), new HashSet<>());
+                List<String> classFilters = new ArrayList<>();
+                for (String classFilter : rule.getArguments()) {
+                    if (!isCovered(classFilter, optionWildcards)) {
+                        classFilters.add(classFilter);
+                    }
+                }
+                if (classFilters.isEmpty()) {
+                    mDuplicateCount++;
+                    continue;
+                }
+                if (classFilters.size() < rule.getArguments().size()) {
+                    rule = Rule.create(rule.mTokens.get(0) + " " + String.join(",", classFilters));
+                }
+            }
+            collapsed.add(rule);
+        }
+        if (!attributes.isEmpty()) {
+            collapsed.add(Rule.create(OPTION_KEEP_ATTRIBUTES + " " + String.join(",", attributes)));
+        }
+        write(writer, collapsed);
+    }
+
+    /**
+     * option -> wildcards such as com.foo.** of -dontwarn and -dontnote
+     */
+    private static void collectWildcards(Rule rule, Map<String, Set<String>> wildcards) {
+        if ((!rule.isOption(OPTION_DONT_WARN) && !rule.isOption(OPTION_DONT_NOTE)) || rule.mText.contains("!")) {
+            return;
+        }
+        for (String classFilter : rule.getArguments()) {
+            if (classFilter.equals("**") || (classFilter.endsWith(".**") && classFilter.indexOf('*') == classFilter.length() - 2)) {
+                wildcards.computeIfAbsent(rule.mTokens.get(0), it -> new HashSet<>()).add(classFilter);
+            }
+        }
+    }
+
+    private static boolean isCovered(String classFilter, Set<String> wildcards) {
+        for (String wildcard : wildcards) {
+            if (wildcard.equals(classFilter)) {
+                continue;
+            }
+            if (wildcard.equals("**") || classFilter.startsWith(wildcard.substring(0, wildcard.length() - 2))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Split the text into rules. A rule starts with an option outside of braces,
+     * except the -keep option which follows -if belongs to the -if rule.
+     */
+    static List<Rule> parse(String text) {
+        List<Rule> rules = new ArrayList<>();
+        List<String> tokens = new ArrayList<>();
+        int ruleStart = -1;
+        int ruleEnd = -1;
+        int depth = 0;
+        boolean waitingKeep = false;
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            if (c == '#') {
+                while (i < length && text.charAt(i) != '\n') {
+                    i++;
+                }
+                continue;
+            }
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            int start = i;
+            if (PUNCTUATION.indexOf(c) >= 0) {
+                i++;
+            } else if (c == '\'' || c == '"') {
+                int close = text.indexOf(c, i + 1);
+                i = close < 0 ? length : close + 1;
+            } else {
+                while (i < length) {
+                    char next = text.charAt(i);
+                    if (Character.isWhitespace(next) || next == '#' || PUNCTUATION.indexOf(next) >= 0) {
+                        break;
+                    }
+                    i++;
+                }
+            }
+            String token = text.substring(start, i);
+
+            if (depth == 0 && token.startsWith("-") && token.length() > 1) {
+                if (waitingKeep && token.startsWith(OPTION_KEEP)) {
+                    waitingKeep = false;
+                } else {
+                    if (!tokens.isEmpty()) {
+                        rules.add(new Rule(text.substring(ruleStart, ruleEnd), tokens));
+                    }
+                    tokens = new ArrayList<>();
+                    ruleStart = start;
+                    waitingKeep = token.equals(OPTION_IF);
+                }
+            }
+            if (token.equals("{")) {
+                depth++;
+            } else if (token.equals("}") && depth > 0) {
+                depth--;
+            }
+            if (ruleStart < 0) {
+                // text before the first option is not a rule
+                continue;
+            }
+            tokens.add(token);
+            ruleEnd = i;
+        }
+        if (!tokens.isEmpty()) {
+            rules.add(new Rule(text.substring(ruleStart, ruleEnd), tokens));
+        }
+        return rules;
+    }
+
+    static final class Rule {
+
+        /**
+         * the original text, comments inside the rule are kept
+         */
+        private final String mText;
+
+        private final List<String> mTokens;
+
+        /**
+         * tokens joined by a single space, rules with the same key are the same
+         */
+        private final String mKey;
+
+        Rule(String text, List<String> tokens) {
+            this.mText = text;
+            this.mTokens = tokens;
+            this.mKey = String.join(" ", tokens);
+        }
+
+        static Rule create(String text) {
+            return parse(text).get(0);
+        }
+
+        boolean isOption(String option) {
+            return mTokens.get(0).equals(option);
+        }
+
+        /**
+         * @return the comma separated arguments of the option
+         */
+        List<String> getArguments() {
+            List<String> arguments = new ArrayList<>();
+            for (int i = 1; i < mTokens.size(); i++) {
+                if (!mTokens.get(i).equals(",")) {
+                    arguments.add(mTokens.get(i));
+                }
+            }
+            return arguments;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.kezong.fataar;
+
+import com.android.utils.FileUtils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Incremental state of {@link RClassesTransform} for one variant.
+ * <p>
+ * Records the package mapping used by last run and the R packages referenced by each class,
+ * so when the mapping changes only the classes referencing the changed packages are transformed again.
+ * <pre>
+ * package:com/lib1 com/sdk
+ * class:com/lib1/Foo.class com/lib1,com/lib2
+ * </pre>
+ */
+class RClassesIndex {
+
+    private static final String PACKAGE_PREFIX = "package:";
+
+    private static final String CLASS_PREFIX = "class:";
+
+    private final File mFile;
+
+    /**
+     * library package -> target package, in internal form
+     */
+    private final Map<String, String> mPackageMapping = new TreeMap<>();
+
+    /**
+     * relative path of class -> referenced R packages
+     */
+    private final Map<String, Set<String>> mReferences = new ConcurrentHashMap<>();
+
+    RClassesIndex(File file) {
+        this.mFile = file;
+    }
+
+    void load() throws IOException {
+        clear();
+        if (!mFile.isFile()) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(mFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.lastIndexOf(' ');
+                if (separator < 0) {
+                    continue;
+                }
+                if (line.startsWith(PACKAGE_PREFIX)) {
+                    mPackageMapping.put(line.substring(PACKAGE_PREFIX.length(), separator), line.substring(separator + 1));
+                } else if (line.startsWith(CLASS_PREFIX)) {
+                    Set<String> packages = new HashSet<>();
+                    for (String referenced : line.substring(separator + 1).split(",")) {
+                        packages.add(referenced);
+                    }
+                    mReferences.put(line.substring(CLASS_PREFIX.length(), separator), packages);
+                }
+            }
+        }
+    }
+
+    void save() throws IOException {
+        FileUtils.mkdirs(mFile.getParentFile());
+        try (BufferedWriter writer = Files.newBufferedWriter(mFile.toPath(), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, String> mapping : mPackageMapping.entrySet()) {
+                writer.write(PACKAGE_PREFIX + mapping.getKey() + " " + mapping.getValue());
+                writer.newLine();
+            }
+            for (Map.Entry<String, Set<String>> references : new TreeMap<>(mReferences).entrySet()) {
+                writer.write(CLASS_PREFIX + references.getKey() + " " + String.join(",", references.getValue()));
+                writer.newLine();
+            }
+        }
+    }
+
+    void clear() {
+        mPackageMapping.clear();
+        mReferences.clear();
+    }
+
+    /**
+     * Replace the recorded package mapping.
+     * @return library packages which are added, removed or mapped to another target
+     */
+    Set<String> updatePackageMapping(Map<String, String> packageMapping) {
+        Set<String> changed = new HashSet<>();
+        for (Map.Entry<String, String> mapping : packageMapping.entrySet()) {
+            if (!mapping.getValue().equals(mPackageMapping.get(mapping.getKey()))) {
+                changed.add(mapping.getKey());
+            }
+        }
+        for (String libraryPackage : mPackageMapping.keySet()) {
+            if (!packageMapping.containsKey(libraryPackage)) {
+                changed.add(libraryPackage);
+            }
+        }
+        mPackageMapping.clear();
+        mPackageMapping.putAll(packageMapping);
+        return changed;
+    }
+
+    /**
+     * @return relative paths of the classes which reference any of the packages
+     */
+    Set<String> findReferences(Collection<String> packages) {
+        Set<String> classes = new HashSet<>();
+        if (packages.isEmpty()) {
+            return classes;
+        }
+        for (Map.Entry<String, Set<String>> references : mReferences.entrySet()) {
+            for (String referenced : references.getValue()) {
+                if (packages.contains(referenced)) {
+                    classes.add(references.getKey());
+                    break;
+                }
+            }
+        }
+        return classes;
+    }
+
+    /**
+     * Thread safe, called by the workers of transform.
+     */
+    void putReferences(String relativePath, Set<String> packages) {
+        if (packages.isEmpty()) {
+            mReferences.remove(relativePath);
+        } else {
+            mReferences.put(relativePath, new HashSet<>(packages));
+        }
+    }
+
+    void removeReferences(String relativePath) {
+        mReferences.remove(relativePath);
+    }
+}
@@ -0,0 +1,635 @@
+package com.kezong.fataar;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rename the R classes referenced by a class file.
+ * <p>
+ * Only the constant pool is parsed, and the fields, methods and attributes are walked to find the descriptors
+ * and signatures they refer to, annotations included: the Utf8 entries used as class names, descriptors
+ * or signatures are rewritten by the transform table, all other bytes are copied as is.
+ * A Utf8 entry shared with a string literal, such as {@code "com/lib/R$id"}, is renamed for the class reference,
+ * and the literal is pointed to a copy of the original value appended to the constant pool.
+ * The buffers are reused, so an instance must be confined to one thread.
+ */
+class RClassesRewriter {
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    private static final byte USAGE_CLASS_NAME = 1;
+    /**
+     * a descriptor, or a generic signature
+     */
+    private static final byte USAGE_DESCRIPTOR = 2;
+    /**
+     * a string literal, or a string value of annotation, never renamed
+     */
+    private static final byte USAGE_STRING = 4;
+
+    private static final byte[] ATTRIBUTE_CODE = "Code".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] ATTRIBUTE_SIGNATURE = "Signature".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] ATTRIBUTE_LOCAL_VARIABLE_TABLE =
+            "LocalVariableTable".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] ATTRIBUTE_LOCAL_VARIABLE_TYPE_TABLE =
+            "LocalVariableTypeTable".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] ATTRIBUTE_RUNTIME_VISIBLE_ANNOTATIONS =
+            "RuntimeVisibleAnnotations".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] ATTRIBUTE_RUNTIME_INVISIBLE_ANNOTATIONS =
+            "RuntimeInvisibleAnnotations".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] ATTRIBUTE_RUNTIME_VISIBLE_PARAMETER_ANNOTATIONS =
+            "RuntimeVisibleParameterAnnotations".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] ATTRIBUTE_RUNTIME_INVISIBLE_PARAMETER_ANNOTATIONS =
+            "RuntimeInvisibleParameterAnnotations".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] ATTRIBUTE_RUNTIME_VISIBLE_TYPE_ANNOTATIONS =
+            "RuntimeVisibleTypeAnnotations".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] ATTRIBUTE_RUNTIME_INVISIBLE_TYPE_ANNOTATIONS =
+            "RuntimeInvisibleTypeAnnotations".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] ATTRIBUTE_ANNOTATION_DEFAULT = "AnnotationDefault".getBytes(StandardCharsets.ISO_8859_1);
+
+    private byte[] mInput = new byte[16 * 1024];
+
+    private int mLength;
+
+    private int[] mOffsets = new int[1024];
+
+    private byte[] mUsages = new byte[1024];
+
+    private String[] mRenamed = new String[1024];
+
+    /**
+     * index of the copy appended to the constant pool, for the renamed Utf8 entries used as strings too, else 0
+     */
+    private int[] mCopies = new int[1024];
+
+    /**
+     * offsets of the string values of annotations, they refer to Utf8 entries outside of the constant pool
+     */
+    private int[] mStringSites = new int[16];
+
+    private int mStringSiteCount;
+
+    private final Output mOutput = new Output();
+
+    private final Set<String> mReferencedPackages = new HashSet<>();
+
+    /**
+     * Rewrite the class file into output file.
+     * If the class does not reference any R class in the table, the file is linked or copied as is.
+     * @param transformTable internal name of library R class -> internal name of target R class
+     * @return true if the class is rewritten, false if passed through
+     */
+    boolean rewrite(File input, File output, Map<String, String> transformTable) throws IOException {
+        mReferencedPackages.clear();
+        read(input);
+        int constantPoolEnd = parseConstantPool();
+        parseMembers(constantPoolEnd);
+        int count = readUnsignedShort(8);
+        boolean matched = false;
+        int newCount = count;
+        for (int i = 1; i < count; i++) {
+            int offset = mOffsets[i];
+            mRenamed[i] = null;
+            mCopies[i] = 0;
+            if (offset >= 0 && (mUsages[i] & (USAGE_CLASS_NAME | USAGE_DESCRIPTOR)) != 0
+                    && mInput[offset] == CONSTANT_UTF8) {
+                mRenamed[i] = rename(offset, mUsages[i], transformTable);
+                if (mRenamed[i] != null) {
+                    matched = true;
+                    if ((mUsages[i] & USAGE_STRING) != 0) {
+                        mCopies[i] = newCount++;
+                    }
+                }
+            }
+        }
+        if (!matched) {
+            passThrough(input, output);
+            return false;
+        }
+        if (newCount > 0xFFFF) {
+            throw new IOException("Too many constants to rewrite " + input);
+        }
+
+        mOutput.reset();
+        mOutput.write(mInput, 0, 8);
+        mOutput.writeShort(newCount);
+        for (int i = 1; i < count; i++) {
+            int offset = mOffsets[i];
+            if (offset < 0) {
+                // the second slot of long and double
+                continue;
+            }
+            if (mRenamed[i] != null) {
+                mOutput.write(CONSTANT_UTF8);
+                mOutput.writeUtf8(mRenamed[i]);
+                continue;
+            }
+            if (mInput[offset] == CONSTANT_STRING && mCopies[readUnsignedShort(offset + 1)] != 0) {
+                mOutput.write(CONSTANT_STRING);
+                mOutput.writeShort(mCopies[readUnsignedShort(offset + 1)]);
+                continue;
+            }
+            int next = i + 1 < count && mOffsets[i + 1] < 0 ? i + 2 : i + 1;
+            int end = next < count ? mOffsets[next] : constantPoolEnd;
+            mOutput.write(mInput, offset, end - offset);
+        }
+        // the original values of the renamed entries used as strings, in the order of their new indexes
+        for (int i = 1; i < count; i++) {
+            if (mCopies[i] != 0) {
+                int offset = mOffsets[i];
+                mOutput.write(mInput, offset, 3 + readUnsignedShort(offset + 1));
+            }
+        }
+        int bodyStart = mOutput.size();
+        mOutput.write(mInput, constantPoolEnd, mLength - constantPoolEnd);
+        for (int i = 0; i < mStringSiteCount; i++) {
+            int site = mStringSites[i];
+            int copy = mCopies[readUnsignedShort(site)];
+            if (copy != 0) {
+                mOutput.setShort(bodyStart + site - constantPoolEnd, copy);
+            }
+        }
+
+        Files.deleteIfExists(output.toPath());
+        try (OutputStream outputStream = new FileOutputStream(output)) {
+            mOutput.writeTo(outputStream);
+        }
+        return true;
+    }
+
+    /**
+     * @return packages of all R classes referenced by the last rewritten class, in internal form.
+     * Includes the packages not in the transform table, they may be added by a later build.
+     */
+    Set<String> getReferencedPackages() {
+        return mReferencedPackages;
+    }
+
+    /**
+     * Hard link the unchanged class, fallback to copy if the file system does not support it.
+     * The output is always deleted first, so a linked file is never written through.
+     */
+    static void passThrough(File input, File output) throws IOException {
+        Files.deleteIfExists(output.toPath());
+        try {
+            Files.createLink(output.toPath(), input.toPath());
+        } catch (IOException | UnsupportedOperationException | SecurityException e) {
+            Files.copy(input.toPath(), output.toPath());
+        }
+    }
+
+    private void read(File input) throws IOException {
+        long size = input.length();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Class file is too large: " + input);
+        }
+        if (mInput.length < size) {
+            mInput = new byte[(int) size];
+        }
+        mLength = 0;
+        try (InputStream inputStream = new FileInputStream(input)) {
+            int read;
+            while ((read = inputStream.read(mInput, mLength, mInput.length - mLength)) > 0) {
+                mLength += read;
+                if (mLength == mInput.length) {
+                    mInput = Arrays.copyOf(mInput, mInput.length * 2);
+                }
+            }
+        }
+        if (mLength < 10 || readInt(0) != 0xCAFEBABE) {
+            throw new IOException("Not a class file: " + input);
+        }
+    }
+
+    /**
+     * Record offset of each constant and how Utf8 constants are used.
+     * @return end offset of the constant pool
+     */
+    private int parseConstantPool() throws IOException {
+        int count = readUnsignedShort(8);
+        if (mOffsets.length < count + 1) {
+            mOffsets = new int[count + 1];
+            mUsages = new byte[count + 1];
+            mRenamed = new String[count + 1];
+            mCopies = new int[count + 1];
+        } else {
+            Arrays.fill(mUsages, 0, count + 1, (byte) 0);
+        }
+        int offset = 10;
+        for (int i = 1; i < count; i++) {
+            mOffsets[i] = offset;
+            int tag = mInput[offset];
+            switch (tag) {
+                case CONSTANT_UTF8:
+                    offset += 3 + readUnsignedShort(offset + 1);
+                    break;
+                case CONSTANT_CLASS:
+                    mUsages[readUnsignedShort(offset + 1)] |= USAGE_CLASS_NAME;
+                    offset += 3;
+                    break;
+                case CONSTANT_NAME_AND_TYPE:
+                    mUsages[readUnsignedShort(offset + 3)] |= USAGE_DESCRIPTOR;
+                    offset += 5;
+                    break;
+                case CONSTANT_METHOD_TYPE:
+                    mUsages[readUnsignedShort(offset + 1)] |= USAGE_DESCRIPTOR;
+                    offset += 3;
+                    break;
+                case CONSTANT_STRING:
+                    mUsages[readUnsignedShort(offset + 1)] |= USAGE_STRING;
+                    offset += 3;
+                    break;
+                case CONSTANT_MODULE:
+                case CONSTANT_PACKAGE:
+                    offset += 3;
+                    break;
+                case CONSTANT_METHOD_HANDLE:
+                    offset += 4;
+                    break;
+                case CONSTANT_INTEGER:
+                case CONSTANT_FLOAT:
+                case CONSTANT_FIELDREF:
+                case CONSTANT_METHODREF:
+                case CONSTANT_INTERFACE_METHODREF:
+                case CONSTANT_DYNAMIC:
+                case CONSTANT_INVOKE_DYNAMIC:
+                    offset += 5;
+                    break;
+                case CONSTANT_LONG:
+                case CONSTANT_DOUBLE:
+                    offset += 9;
+                    // takes two slots
+                    mOffsets[++i] = -1;
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag + " at " + offset);
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Fields, methods and some attributes refer to their descriptors and signatures directly, not through
+     * other constants. They are recorded too, or a declaration would keep the library R class
+     * while the references to it are renamed.
+     */
+    private void parseMembers(int offset) {
+        mStringSiteCount = 0;
+        // access flags, this class and super class
+        offset += 6;
+        offset += 2 + 2 * readUnsignedShort(offset);
+        // fields, then methods
+        for (int kind = 0; kind < 2; kind++) {
+            int count = readUnsignedShort(offset);
+            offset += 2;
+            for (int i = 0; i < count; i++) {
+                mUsages[readUnsignedShort(offset + 4)] |= USAGE_DESCRIPTOR;
+                offset = parseAttributes(offset + 6);
+            }
+        }
+        parseAttributes(offset);
+    }
+
+    /**
+     * @return end offset of the attributes
+     */
+    private int parseAttributes(int offset) {
+        int count = readUnsignedShort(offset);
+        offset += 2;
+        for (int i = 0; i < count; i++) {
+            int nameIndex = readUnsignedShort(offset);
+            int start = offset + 6;
+            if (isUtf8(nameIndex, ATTRIBUTE_SIGNATURE)) {
+                mUsages[readUnsignedShort(start)] |= USAGE_DESCRIPTOR;
+            } else if (isUtf8(nameIndex, ATTRIBUTE_CODE)) {
+                // max stack, max locals, code length and code, then the exception table
+                int exceptionTable = start + 8 + readInt(start + 4);
+                parseAttributes(exceptionTable + 2 + 8 * readUnsignedShort(exceptionTable));
+            } else if (isUtf8(nameIndex, ATTRIBUTE_LOCAL_VARIABLE_TABLE)
+                    || isUtf8(nameIndex, ATTRIBUTE_LOCAL_VARIABLE_TYPE_TABLE)) {
+                int variableCount = readUnsignedShort(start);
+                for (int j = 0; j < variableCount; j++) {
+                    // start pc, length, name, descriptor or signature, index
+                    mUsages[readUnsignedShort(start + 2 + j * 10 + 6)] |= USAGE_DESCRIPTOR;
+                }
+            } else if (isUtf8(nameIndex, ATTRIBUTE_RUNTIME_VISIBLE_ANNOTATIONS)
+                    || isUtf8(nameIndex, ATTRIBUTE_RUNTIME_INVISIBLE_ANNOTATIONS)) {
+                parseAnnotations(start);
+            } else if (isUtf8(nameIndex, ATTRIBUTE_RUNTIME_VISIBLE_PARAMETER_ANNOTATIONS)
+                    || isUtf8(nameIndex, ATTRIBUTE_RUNTIME_INVISIBLE_PARAMETER_ANNOTATIONS)) {
+                int parameterCount = mInput[start] & 0xFF;
+                int parameterOffset = start + 1;
+                for (int j = 0; j < parameterCount; j++) {
+                    parameterOffset = parseAnnotations(parameterOffset);
+                }
+            } else if (isUtf8(nameIndex, ATTRIBUTE_RUNTIME_VISIBLE_TYPE_ANNOTATIONS)
+                    || isUtf8(nameIndex, ATTRIBUTE_RUNTIME_INVISIBLE_TYPE_ANNOTATIONS)) {
+                int annotationCount = readUnsignedShort(start);
+                int annotationOffset = start + 2;
+                for (int j = 0; j < annotationCount; j++) {
+                    annotationOffset = parseTypeAnnotation(annotationOffset);
+                }
+            } else if (isUtf8(nameIndex, ATTRIBUTE_ANNOTATION_DEFAULT)) {
+                parseElementValue(start);
+            }
+            offset = start + readInt(offset + 2);
+        }
+        return offset;
+    }
+
+    /**
+     * @return end offset of the annotations
+     */
+    private int parseAnnotations(int offset) {
+        int count = readUnsignedShort(offset);
+        offset += 2;
+        for (int i = 0; i < count; i++) {
+            offset = parseAnnotation(offset);
+        }
+        return offset;
+    }
+
+    /**
+     * The type of annotation, then the element name and value pairs.
+     * @return end offset of the annotation
+     */
+    private int parseAnnotation(int offset) {
+        mUsages[readUnsignedShort(offset)] |= USAGE_DESCRIPTOR;
+        int pairCount = readUnsignedShort(offset + 2);
+        offset += 4;
+        for (int i = 0; i < pairCount; i++) {
+            offset = parseElementValue(offset + 2);
+        }
+        return offset;
+    }
+
+    /**
+     * @return end offset of the element value
+     */
+    private int parseElementValue(int offset) {
+        int tag = mInput[offset];
+        offset++;
+        switch (tag) {
+            case 'e':
+                // type name, then const name
+                mUsages[readUnsignedShort(offset)] |= USAGE_DESCRIPTOR;
+                return offset + 4;
+            case 'c':
+                // return descriptor such as Lcom/lib/R$id; or V
+                mUsages[readUnsignedShort(offset)] |= USAGE_DESCRIPTOR;
+                return offset + 2;
+            case 's':
+                mUsages[readUnsignedShort(offset)] |= USAGE_STRING;
+                if (mStringSiteCount == mStringSites.length) {
+                    mStringSites = Arrays.copyOf(mStringSites, mStringSiteCount * 2);
+                }
+                mStringSites[mStringSiteCount++] = offset;
+                return offset + 2;
+            case '@':
+                return parseAnnotation(offset);
+            case '[':
+                int count = readUnsignedShort(offset);
+                offset += 2;
+                for (int i = 0; i < count; i++) {
+                    offset = parseElementValue(offset);
+                }
+                return offset;
+            default:
+                // primitive constants
+                return offset + 2;
+        }
+    }
+
+    /**
+     * The target and the type path, then an annotation.
+     * @return end offset of the type annotation
+     */
+    private int parseTypeAnnotation(int offset) {
+        int targetType = mInput[offset] & 0xFF;
+        offset++;
+        switch (targetType) {
+            case 0x00:
+            case 0x01:
+            case 0x16:
+                offset += 1;
+                break;
+            case 0x10:
+            case 0x11:
+            case 0x12:
+            case 0x17:
+            case 0x42:
+            case 0x43:
+            case 0x44:
+            case 0x45:
+            case 0x46:
+                offset += 2;
+                break;
+            case 0x40:
+            case 0x41:
+                // start pc, length and index of each local variable
+                offset += 2 + 6 * readUnsignedShort(offset);
+                break;
+            case 0x47:
+            case 0x48:
+            case 0x49:
+            case 0x4A:
+            case 0x4B:
+                offset += 3;
+                break;
+            default:
+                // 0x13 to 0x15, empty target
+                break;
+        }
+        offset += 1 + 2 * (mInput[offset] & 0xFF);
+        return parseAnnotation(offset);
+    }
+
+    private boolean isUtf8(int index, byte[] value) {
+        int offset = mOffsets[index];
+        if (offset < 0 || mInput[offset] != CONSTANT_UTF8 || readUnsignedShort(offset + 1) != value.length) {
+            return false;
+        }
+        for (int i = 0; i < value.length; i++) {
+            if (mInput[offset + 3 + i] != value[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the renamed value, or null if nothing changed
+     */
+    private String rename(int offset, byte usage, Map<String, String> transformTable) throws IOException {
+        int length = readUnsignedShort(offset + 1);
+        int start = offset + 3;
+        if (!containsRClassMarker(start, length)) {
+            return null;
+        }
+        String value = readUtf8(start, length);
+        if ((usage & USAGE_CLASS_NAME) != 0 && value.charAt(0) != '[') {
+            collectReferencedPackage(value);
+            return transformTable.get(value);
+        }
+        return renameTypes(value, transformTable);
+    }
+
+    private void collectReferencedPackage(String className) {
+        int index = className.lastIndexOf('/');
+        if (index > 0 && className.startsWith("R$", index + 1)) {
+            mReferencedPackages.add(className.substring(0, index));
+        }
+    }
+
+    /**
+     * A fast check before decoding, R classes always contain "R$".
+     */
+    private boolean containsRClassMarker(int start, int length) {
+        int end = start + length - 1;
+        for (int i = start; i < end; i++) {
+            if (mInput[i] == 'R' && mInput[i + 1] == '$') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Rename the class types of a descriptor or a generic signature,
+     * such as {@code (Lcom/lib/R$id;)V} or {@code Ljava/util/List<Lcom/lib/R$id;>;}.
+     * @return the renamed value, or null if nothing changed
+     */
+    private String renameTypes(String value, Map<String, String> transformTable) {
+        StringBuilder builder = null;
+        int copied = 0;
+        int index = 0;
+        int length = value.length();
+        while (index < length) {
+            char c = value.charAt(index);
+            if (c == 'T') {
+                // type variable, or a type parameter with its bounds
+                int end = value.indexOf(';', index);
+                index = end < 0 ? length : end + 1;
+                continue;
+            }
+            if (c != 'L' && c != '.') {
+                index++;
+                continue;
+            }
+            int start = index + 1;
+            int end = start;
+            while (end < length && value.charAt(end) != ';' && value.charAt(end) != '<' && value.charAt(end) != '.') {
+                end++;
+            }
+            index = end;
+            if (c == '.') {
+                // simple name of an inner class of a parameterized type
+                continue;
+            }
+            String className = value.substring(start, end);
+            collectReferencedPackage(className);
+            String renamed = transformTable.get(className);
+            if (renamed != null) {
+                if (builder == null) {
+                    builder = new StringBuilder(length + 16);
+                }
+                builder.append(value, copied, start).append(renamed);
+                copied = end;
+            }
+        }
+        if (builder == null) {
+            return null;
+        }
+        return builder.append(value, copied, length).toString();
+    }
+
+    private String readUtf8(int start, int length) throws IOException {
+        for (int i = start; i < start + length; i++) {
+            if (mInput[i] <= 0) {
+                // not ascii, decode as modified UTF-8
+                byte[] bytes = new byte[length + 2];
+                bytes[0] = (byte) (length >>> 8);
+                bytes[1] = (byte) length;
+                System.arraycopy(mInput, start, bytes, 2, length);
+                return new DataInputStream(new ByteArrayInputStream(bytes)).readUTF();
+            }
+        }
+        return new String(mInput, start, length, StandardCharsets.ISO_8859_1);
+    }
+
+    private int readUnsignedShort(int offset) {
+        return ((mInput[offset] & 0xFF) << 8) | (mInput[offset + 1] & 0xFF);
+    }
+
+    private int readInt(int offset) {
+        return (readUnsignedShort(offset) << 16) | readUnsignedShort(offset + 2);
+    }
+
+    private static final class Output extends ByteArrayOutputStream {
+
+        Output() {
+            super(16 * 1024);
+        }
+
+        void writeShort(int value) {
+            write(value >>> 8);
+            write(value);
+        }
+
+        /**
+         * Overwrite the unsigned short already written at position.
+         */
+        void setShort(int position, int value) {
+            buf[position] = (byte) (value >>> 8);
+            buf[position + 1] = (byte) value;
+        }
+
+        void writeUtf8(String value) throws IOException {
+            int length = value.length();
+            boolean ascii = true;
+            for (int i = 0; i < length && ascii; i++) {
+                char c = value.charAt(i);
+                ascii = c > 0 && c < 0x80;
+            }
+            if (ascii) {
+                write(length >>> 8);
+                write(length);
+                for (int i = 0; i < length; i++) {
+                    write(value.charAt(i));
+                }
+            } else {
+                new DataOutputStream(this).writeUTF(value);
+            }
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.kezong.fataar;
 import com.android.build.api.transform.DirectoryInput;
 import com.android.build.api.transform.Format;
 import com.android.build.api.transform.QualifiedContent;
+import com.android.build.api.transform.SecondaryFile;
 import com.android.build.api.transform.Status;
 import com.android.build.api.transform.Transform;
 import com.android.build.api.transform.TransformInput;
@@ -11,7 +12,10 @@ import com.android.build.api.transform.TransformOutputProvider;
 import com.android.build.gradle.internal.pipeline.TransformManager;
 import com.google.common.collect.ImmutableSet;
 
-import org.gradle.api.Project;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
 
 import java.io.File;
 import java.io.IOException;
@@ -20,22 +24,18 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.stream.Collectors;
-
-import javassist.CannotCompileException;
-import javassist.ClassPool;
-import javassist.CtClass;
-import javassist.NotFoundException;
-import javassist.bytecode.ClassFile;
-import javassist.bytecode.ConstPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
 import kotlin.io.FilesKt;
 
 /**
@@ -49,18 +49,39 @@ public class RClassesTransform extends Transform {
 
     private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
 
-    private final ExecutorService executor = Executors.newFixedThreadPool(CPU_COUNT + 1);
+    /**
+     * Each thread of executor reuses its own buffers.
+     */
+    private static final ThreadLocal<RClassesRewriter> REWRITER = ThreadLocal.withInitial(RClassesRewriter::new);
+
+    private static final Logger LOGGER = Logging.getLogger(RClassesTransform.class);
+
+    private final File indexDir;
+
+    private final File metricsDir;
 
-    private final List<Future<?>> futures = new ArrayList<>();
+    private final Supplier<ExecutorService> executorSupplier;
 
-    private final Project project;
+    private final Map<String, String> targetPackageMap = new ConcurrentHashMap<>();
 
-    private final Map<String, String> targetPackageMap = new HashMap<>();
+    private final Map<String, FileCollection> libraryIndexMap = new ConcurrentHashMap<>();
 
-    private final Map<String, Collection<String>> libraryPackageMap = new HashMap<>();
+    private final ConfigurableFileCollection libraryIndexes;
 
-    public RClassesTransform(final Project project) {
-        this.project = project;
+    /**
+     * The project is not kept, the transform is shared by the variants and outlives configuration.
+     * @param libraryIndexes an empty collection, the indexes of all variants are added into it
+     * @param indexDir {@link RClassesIndex} is kept in a folder per variant in it
+     * @param metricsDir {@link TaskMetrics} are written into a folder per variant in it
+     * @param executorSupplier the pool shared by the build, see {@link FatAarWorkerPool}.
+     *                         If null, a pool is created for each run and shut down after it.
+     */
+    public RClassesTransform(final ConfigurableFileCollection libraryIndexes, final File indexDir,
+                             final File metricsDir, final Supplier<ExecutorService> executorSupplier) {
+        this.libraryIndexes = libraryIndexes;
+        this.indexDir = indexDir;
+        this.metricsDir = metricsDir;
+        this.executorSupplier = executorSupplier;
     }
 
     /**
@@ -74,12 +95,13 @@ public class RClassesTransform extends Transform {
     }
 
     /**
-     * library packages name must set after exploded task perform
+     * library packages name are read when transform performs, after exploded tasks
      * @param variantName variant name
-     * @param libraryPackages sub module's package name, read from AndroidManifest.xml
+     * @param indexes {@link AarIndex} files of the embedded aars, should carry the explode tasks as dependencies
      */
-    public void putLibraryPackages(String variantName, Collection<String> libraryPackages) {
-        libraryPackageMap.put(variantName, libraryPackages);
+    public void putLibraryIndexes(String variantName, FileCollection indexes) {
+        libraryIndexMap.put(variantName, indexes);
+        libraryIndexes.from(indexes);
     }
 
     @Override
@@ -102,87 +124,154 @@ public class RClassesTransform extends Transform {
         return true;
     }
 
+    @Override
+    public Collection<SecondaryFile> getSecondaryFiles() {
+        // the package mapping is read from these indexes, changes of them must trigger an incremental run
+        return Collections.singletonList(SecondaryFile.incremental(libraryIndexes));
+    }
+
     @Override
     public void transform(TransformInvocation transformInvocation) throws InterruptedException, IOException {
         long startTime = System.currentTimeMillis();
-        Map<String, String> transformTable = buildTransformTable(transformInvocation.getContext().getVariantName());
+        final String variantName = transformInvocation.getContext().getVariantName();
+        final String targetPackage = targetPackageMap.get(variantName);
+        final FileCollection indexes = libraryIndexMap.get(variantName);
+        final Collection<String> libraryPackages = indexes == null ? null : readPackageNames(indexes);
+        final Map<String, String> transformTable = targetPackage == null || libraryPackages == null
+                ? null : buildTransformTable(targetPackage, libraryPackages);
         final boolean isIncremental = transformInvocation.isIncremental() && this.isIncremental();
         final TransformOutputProvider outputProvider = transformInvocation.getOutputProvider();
+        final RClassesIndex index = new RClassesIndex(getIndexFile(variantName));
 
         if (!isIncremental) {
             outputProvider.deleteAll();
+        } else {
+            index.load();
         }
 
         final File outputDir = outputProvider.getContentLocation("classes", getOutputTypes(), getScopes(), Format.DIRECTORY);
-
+        final Set<String> changedPackages = index.updatePackageMapping(buildPackageMapping(targetPackage, libraryPackages));
+        final Set<String> affectedClasses = isIncremental ? index.findReferences(changedPackages) : Collections.emptySet();
+        final AtomicInteger rewrittenCount = new AtomicInteger();
+        final AtomicInteger skippedCount = new AtomicInteger();
+        final TaskMetrics metrics = new TaskMetrics();
+        // futures of this run only, other variants may run on the same pool at the same time
+        final List<Future<?>> futures = new ArrayList<>();
+        final ExecutorService executor = executorSupplier != null ? executorSupplier.get() : WorkerPools.newPool(CPU_COUNT);
         try {
             for (final TransformInput input : transformInvocation.getInputs()) {
                 for (final DirectoryInput directoryInput : input.getDirectoryInputs()) {
                     final File directoryFile = directoryInput.getFile();
-                    final ClassPool classPool = new ClassPool();
-                    classPool.insertClassPath(directoryFile.getAbsolutePath());
 
-                    for (final File originalClassFile : getChangedClassesList(directoryInput)) {
-                        if (!originalClassFile.getPath().endsWith(".class")) {
+                    Map<String, File> classes = getChangedClasses(directoryInput, isIncremental, outputDir, index);
+                    for (String affected : affectedClasses) {
+                        File originalClassFile = new File(directoryFile, affected);
+                        if (!classes.containsKey(affected) && originalClassFile.isFile()) {
+                            classes.put(affected, originalClassFile);
+                        }
+                    }
+
+                    for (final Map.Entry<String, File> entry : classes.entrySet()) {
+                        final String relativePath = entry.getKey();
+                        final File originalClassFile = entry.getValue();
+                        if (!relativePath.endsWith(".class")) {
                             continue; // ignore anything that is not class file
                         }
 
-                        Future<?> submit = executor.submit(() -> {
-                            try {
-                                File relative = FilesKt.relativeTo(originalClassFile, directoryFile);
-                                String className = filePathToClassname(relative);
-                                final CtClass ctClass = classPool.get(className);
-                                if (transformTable != null) {
-                                    ClassFile classFile = ctClass.getClassFile();
-                                    ConstPool constPool = classFile.getConstPool();
-                                    constPool.renameClass(transformTable);
-                                }
-                                ctClass.writeFile(outputDir.getAbsolutePath());
-                            } catch (CannotCompileException | NotFoundException | IOException e) {
-                                e.printStackTrace();
+                        futures.add(executor.submit(() -> {
+                            File outputFile = new File(outputDir, relativePath);
+                            outputFile.getParentFile().mkdirs();
+                            metrics.read(1, originalClassFile.length());
+                            if (transformTable == null) {
+                                RClassesRewriter.passThrough(originalClassFile, outputFile);
+                                skippedCount.incrementAndGet();
+                                metrics.written(1, outputFile.length());
+                                return null;
                             }
-                        });
-
-                        futures.add(submit);
+                            RClassesRewriter rewriter = REWRITER.get();
+                            if (rewriter.rewrite(originalClassFile, outputFile, transformTable)) {
+                                rewrittenCount.incrementAndGet();
+                            } else {
+                                skippedCount.incrementAndGet();
+                            }
+                            metrics.written(1, outputFile.length());
+                            index.putReferences(relativePath, rewriter.getReferencedPackages());
+                            return null;
+                        }));
                     }
                 }
             }
-        } catch (NotFoundException e) {
-            throw new RuntimeException(e);
-        }
-
-
-        for (Future<?> future : futures) {
-            try {
-                future.get();
-            } catch (ExecutionException e) {
-                e.printStackTrace();
+            WorkerPools.awaitAll(futures);
+        } finally {
+            // nothing is left running on the shared pool if listing classes failed, no-op for the finished ones
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+            if (executorSupplier == null) {
+                executor.shutdownNow();
             }
         }
-
-        futures.clear();
+        index.save();
 
         long endTime = System.currentTimeMillis();
-        project.getLogger().info("the task cost "
+        LOGGER.info("the task cost "
                 + (endTime - startTime)
-                + "ms");
+                + "ms, " + rewrittenCount.get() + " classes rewritten, "
+                + skippedCount.get() + " classes skipped, "
+                + changedPackages.size() + " packages changed, "
+                + affectedClasses.size() + " classes affected");
+        metrics.add(TaskMetrics.CLASSES_REWRITTEN, rewrittenCount.get()).write(new File(metricsDir, variantName));
+    }
+
+    /**
+     * The index is kept beside other intermediates of fat-aar, it is rebuilt by a non incremental run.
+     */
+    private File getIndexFile(String variantName) {
+        return new File(indexDir, variantName + "/index.txt");
     }
 
-    private Map<String, String> buildTransformTable(String variantName) {
-        String targetPackage = targetPackageMap.get(variantName);
-        Collection<String> libraryPackages = libraryPackageMap.get(variantName);
+    /**
+     * @return library package -> target package, in internal form
+     */
+    private static Map<String, String> buildPackageMapping(String targetPackage, Collection<String> libraryPackages) {
+        Map<String, String> mapping = new HashMap<>();
         if (targetPackage == null || libraryPackages == null) {
-            return null;
+            return mapping;
+        }
+        for (String libraryPackage : libraryPackages) {
+            mapping.put(libraryPackage.replace(".", "/"), targetPackage.replace(".", "/"));
+        }
+        return mapping;
+    }
+
+    /**
+     * Shared with {@link RClassesVisitorFactory}.
+     * @return package names of the {@link AarIndex} files, the aars without manifest are ignored
+     */
+    static Collection<String> readPackageNames(Iterable<File> indexes) throws IOException {
+        Collection<String> packageNames = new ArrayList<>();
+        for (File index : indexes) {
+            String packageName = AarIndex.read(index).getPackageName();
+            if (packageName != null) {
+                packageNames.add(packageName);
+            }
         }
+        return packageNames;
+    }
 
+    /**
+     * Shared with {@link RClassesVisitorFactory}.
+     * @return internal name of library R class -> internal name of target R class
+     */
+    static Map<String, String> buildTransformTable(String targetPackage, Collection<String> libraryPackages) {
         final List<String> resourceTypes = Arrays.asList("anim", "animator", "array", "attr", "bool", "color", "dimen",
                 "drawable", "font", "fraction", "id", "integer", "interpolator", "layout", "menu", "mipmap", "navigation",
                 "plurals", "raw", "string", "style", "styleable", "transition", "xml");
 
         HashMap<String, String> map = new HashMap<>();
         for (String resource : resourceTypes) {
-            String targetClass = targetPackageMap.get(variantName).replace(".", "/") + "/R$" + resource;
-            for (String libraryPackage : libraryPackageMap.get(variantName)) {
+            String targetClass = targetPackage.replace(".", "/") + "/R$" + resource;
+            for (String libraryPackage : libraryPackages) {
                 String fromClass = libraryPackage.replace(".", "/") + "/R$" + resource;
                 map.put(fromClass, targetClass);
             }
@@ -191,32 +280,41 @@ public class RClassesTransform extends Transform {
         return map;
     }
 
-    private List<File> getChangedClassesList(final DirectoryInput directoryInput) throws IOException {
-        final Map<File, Status> changedFiles = directoryInput.getChangedFiles();
-        if (changedFiles.isEmpty()) {
-            // we're in non incremental mode
-            return Files.walk(directoryInput.getFile().toPath())
-                    .filter(Files::isRegularFile)
-                    .map(Path::toFile)
-                    .collect(Collectors.toList());
-        } else {
-            changedFiles.entrySet().stream()
-                    .filter(it -> it.getValue() == Status.REMOVED)
-                    .forEach(it -> it.getKey().delete());
-
-            return changedFiles.entrySet().stream()
-                    .filter(it -> it.getValue() == Status.ADDED || it.getValue() == Status.CHANGED)
-                    .map(Map.Entry::getKey)
-                    .filter(File::isFile)
-                    .collect(Collectors.toList());
+    /**
+     * The outputs of removed classes are deleted here.
+     * @return relative path -> class file to transform
+     */
+    private static Map<String, File> getChangedClasses(final DirectoryInput directoryInput,
+                                                       final boolean isIncremental,
+                                                       final File outputDir,
+                                                       final RClassesIndex index) throws IOException {
+        final File directoryFile = directoryInput.getFile();
+        final Map<String, File> classes = new HashMap<>();
+        if (!isIncremental) {
+            if (!directoryFile.isDirectory()) {
+                return classes;
+            }
+            try (Stream<Path> files = Files.walk(directoryFile.toPath())) {
+                files.filter(Files::isRegularFile)
+                        .map(Path::toFile)
+                        .forEach(it -> classes.put(getRelativePath(it, directoryFile), it));
+            }
+            return classes;
+        }
+
+        for (Map.Entry<File, Status> changedFile : directoryInput.getChangedFiles().entrySet()) {
+            String relativePath = getRelativePath(changedFile.getKey(), directoryFile);
+            if (changedFile.getValue() == Status.REMOVED) {
+                Files.deleteIfExists(new File(outputDir, relativePath).toPath());
+                index.removeReferences(relativePath);
+            } else if (changedFile.getValue() != Status.NOTCHANGED && changedFile.getKey().isFile()) {
+                classes.put(relativePath, changedFile.getKey());
+            }
         }
+        return classes;
     }
 
-    private String filePathToClassname(File file) {
-        // com/classify/module/a.class -> com.classify.module.a.class -> comify.module.a is not expected
-        // so must be replace .class first
-        return file.getPath().replace(".class", "")
-                .replace("/", ".")
-                .replace("\\", ".");
+    private static String getRelativePath(File file, File directory) {
+        return FilesKt.relativeTo(file, directory).getPath().replace(File.separatorChar, '/');
     }
 }
@@ -0,0 +1,83 @@
+package com.kezong.fataar;
+
+import com.android.build.api.instrumentation.AsmClassVisitorFactory;
+import com.android.build.api.instrumentation.ClassContext;
+import com.android.build.api.instrumentation.ClassData;
+import com.android.build.api.instrumentation.InstrumentationParameters;
+
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.SimpleRemapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Rename the R classes by the instrumentation pipeline of AGP 7+, used instead of {@link RClassesTransform}.
+ * <p>
+ * AGP applies the visitor per class, so the results are cached and incremental,
+ * the mapping is the same as the one used by {@link RClassesTransform}.
+ */
+public abstract class RClassesVisitorFactory implements AsmClassVisitorFactory<RClassesVisitorFactory.Parameters> {
+
+    public interface Parameters extends InstrumentationParameters {
+
+        /**
+         * main module's package name, absent if the variant embeds nothing
+         */
+        @Input
+        @Optional
+        Property<String> getTargetPackage();
+
+        /**
+         * {@link AarIndex} files of the embedded aars, the library packages are read from them
+         */
+        @InputFiles
+        @PathSensitive(PathSensitivity.NONE)
+        ConfigurableFileCollection getLibraryIndexes();
+    }
+
+    private Map<String, String> mTransformTable;
+
+    @Override
+    public ClassVisitor createClassVisitor(ClassContext classContext, ClassVisitor nextClassVisitor) {
+        return new ClassRemapper(nextClassVisitor, new SimpleRemapper(getTransformTable()));
+    }
+
+    @Override
+    public boolean isInstrumentable(ClassData classData) {
+        return !getTransformTable().isEmpty();
+    }
+
+    /**
+     * Built once per factory, the indexes are read only when the classes are transformed.
+     */
+    private synchronized Map<String, String> getTransformTable() {
+        if (mTransformTable == null) {
+            Parameters parameters = getParameters().get();
+            String targetPackage = parameters.getTargetPackage().getOrNull();
+            if (targetPackage == null) {
+                mTransformTable = Collections.emptyMap();
+            } else {
+                Collection<String> libraryPackages;
+                try {
+                    libraryPackages = RClassesTransform.readPackageNames(parameters.getLibraryIndexes());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                mTransformTable = RClassesTransform.buildTransformTable(targetPackage, libraryPackages);
+            }
+        }
+        return mTransformTable;
+    }
+}
@@ -0,0 +1,95 @@
+package com.kezong.fataar;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resource names of the local symbol file of the module, used to filter the symbols of the embedded aars.
+ * <p>
+ * Names are kept in a sorted array per resource type and looked up by binary search,
+ * which is much smaller than a map of maps for tens of thousands of symbols.
+ */
+final class RSymbolTable {
+
+    /**
+     * resource type -> sorted names
+     */
+    private final Map<String, String[]> mNames;
+
+    private RSymbolTable(Map<String, String[]> names) {
+        this.mNames = names;
+    }
+
+    /**
+     * @param file R-def.txt since AGP 3.6, otherwise R.txt
+     */
+    static RSymbolTable parse(File file) throws IOException {
+        if (!file.exists()) {
+            throw new IOException(file.getAbsolutePath() + " not found");
+        }
+        boolean isLocalDefinition = "R-def.txt".equals(file.getName());
+        Map<String, List<String>> names = new HashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] splits = line.trim().split(" ");
+                if (isLocalDefinition) {
+                    parseLocalDefinition(splits, names);
+                } else if (splits.length >= 3) {
+                    // int layout activity_main 0x7f0b001c
+                    add(names, splits[1], splits[2]);
+                }
+            }
+        }
+
+        Map<String, String[]> sortedNames = new HashMap<>();
+        for (Map.Entry<String, List<String>> entry : names.entrySet()) {
+            String[] array = entry.getValue().toArray(new String[0]);
+            Arrays.sort(array);
+            sortedNames.put(entry.getKey(), array);
+        }
+        return new RSymbolTable(sortedNames);
+    }
+
+    /**
+     * R-def.txt is a local symbol file that format is different of R.txt
+     * <pre>
+     * attr? colorPrimary
+     * styleable Foo bar android:text
+     * </pre>
+     */
+    private static void parseLocalDefinition(String[] splits, Map<String, List<String>> names) {
+        if (splits.length < 2) {
+            return;
+        }
+        String type = splits[0];
+        String name = splits[1].replace('.', '_');
+        if ("attr?".equals(type)) {
+            // styleable attributes
+            type = "attr";
+        }
+        add(names, type, name);
+        if ("styleable".equals(type)) {
+            for (int i = 2; i < splits.length; ++i) {
+                add(names, type, name + "_" + splits[i].replace(':', '_'));
+            }
+        }
+    }
+
+    private static void add(Map<String, List<String>> names, String type, String name) {
+        names.computeIfAbsent(type, key -> new ArrayList<>()).add(name);
+    }
+
+    boolean contains(String type, String name) {
+        String[] names = mNames.get(type);
+        return names != null && Arrays.binarySearch(names, name) >= 0;
+    }
+}
@@ -0,0 +1,101 @@
+package com.kezong.fataar;
+
+import com.android.utils.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * I/O counters of a task action, written into the temporary dir of the task
+ * and collected by {@link FatAarMetricsService} into the report of the variant.
+ * <p>
+ * Thread safe, the counters may be updated by workers.
+ */
+public final class TaskMetrics {
+
+    static final String FILE_NAME = "fat-aar-metrics.properties";
+
+    public static final String FILES_READ = "filesRead";
+
+    public static final String BYTES_READ = "bytesRead";
+
+    public static final String FILES_WRITTEN = "filesWritten";
+
+    public static final String BYTES_WRITTEN = "bytesWritten";
+
+    public static final String CLASSES_REWRITTEN = "classesRewritten";
+
+    public static final String DUPLICATE_BYTES_AVOIDED = "duplicateBytesAvoided";
+
+    private final Map<String, AtomicLong> mCounters = new LinkedHashMap<>();
+
+    public TaskMetrics() {
+        for (String name : new String[]{FILES_READ, BYTES_READ, FILES_WRITTEN, BYTES_WRITTEN}) {
+            mCounters.put(name, new AtomicLong());
+        }
+    }
+
+    public TaskMetrics read(long files, long bytes) {
+        add(FILES_READ, files);
+        add(BYTES_READ, bytes);
+        return this;
+    }
+
+    public TaskMetrics written(long files, long bytes) {
+        add(FILES_WRITTEN, files);
+        add(BYTES_WRITTEN, bytes);
+        return this;
+    }
+
+    public TaskMetrics add(String name, long value) {
+        AtomicLong counter;
+        synchronized (mCounters) {
+            counter = mCounters.computeIfAbsent(name, it -> new AtomicLong());
+        }
+        counter.addAndGet(value);
+        return this;
+    }
+
+    /**
+     * @param temporaryDir {@code Task.getTemporaryDir()}
+     */
+    public void write(File temporaryDir) throws IOException {
+        Properties properties = new Properties();
+        synchronized (mCounters) {
+            for (Map.Entry<String, AtomicLong> counter : mCounters.entrySet()) {
+                properties.setProperty(counter.getKey(), String.valueOf(counter.getValue().get()));
+            }
+        }
+        FileUtils.mkdirs(temporaryDir);
+        try (OutputStream outputStream = Files.newOutputStream(new File(temporaryDir, FILE_NAME).toPath())) {
+            properties.store(outputStream, null);
+        }
+    }
+
+    /**
+     * @return counters, empty if the file is missing or broken
+     */
+    static Map<String, Long> read(File file) {
+        Map<String, Long> counters = new LinkedHashMap<>();
+        if (!file.isFile()) {
+            return counters;
+        }
+        Properties properties = new Properties();
+        try (InputStream inputStream = Files.newInputStream(file.toPath())) {
+            properties.load(inputStream);
+            for (String name : properties.stringPropertyNames()) {
+                counters.put(name, Long.parseLong(properties.getProperty(name)));
+            }
+        } catch (IOException | NumberFormatException ignore) {
+            counters.clear();
+        }
+        return counters;
+    }
+}
@@ -0,0 +1,67 @@
+package com.kezong.fataar;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread pools of fat-aar and waiting for the work submitted to them.
+ * <p>
+ * Kept apart from {@link FatAarWorkerPool}, so it can be used on gradle without build services.
+ */
+final class WorkerPools {
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private WorkerPools() {
+    }
+
+    /**
+     * @return a pool of daemon threads, which never keeps the gradle daemon from stopping
+     */
+    static ExecutorService newPool(int threadCount) {
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "fat-aar-worker-" + THREAD_COUNT.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return Executors.newFixedThreadPool(Math.max(1, threadCount), threadFactory);
+    }
+
+    /**
+     * Wait for all the work. If one fails or the waiting thread is interrupted, such as the build is cancelled,
+     * the remaining work is cancelled and the failure is thrown.
+     */
+    static void awaitAll(List<? extends Future<?>> futures) throws IOException, InterruptedException {
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            cancelAll(futures);
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        } catch (InterruptedException | CancellationException e) {
+            cancelAll(futures);
+            throw e;
+        }
+    }
+
+    private static void cancelAll(List<? extends Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.kezong.fataar;
+
+import org.gradle.testkit.runner.GradleRunner;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Builds generated projects embedding a growing count of aars by TestKit, and reports how the build
+ * time of lib-main grows with it, so super-linear behaviour of the plugin is visible.
+ * <p>
+ * For each count of aars it measures:
+ * <ul>
+ *     <li>configuration: assemble with --dry-run, which configures the projects and resolves the embedded dependencies</li>
+ *     <li>clean build: clean assemble without build cache</li>
+ *     <li>no-op build: assemble again with nothing changed</li>
+ *     <li>incremental build: assemble after a class of one embedded aar is changed</li>
+ * </ul>
+ * The median of the runs is reported into scaling.json and scaling.md of the report dir, the metrics
+ * of fat-aar stages of the last incremental build are copied beside them.
+ * <p>
+ * After the clean and the incremental builds, classes.jar of the built aar is checked to contain the classes
+ * of every embedded module. They are bundled from the post javac bytecode registered to the variant,
+ * not from javac dir, so a broken registration fails the harness instead of producing an aar without them.
+ * <p>
+ * Run by {@code ./gradlew scalingBenchmark}, see build.gradle for the options.
+ */
+public final class ScalingBenchmark {
+
+    private final File mWorkDir;
+
+    private final File mReportDir;
+
+    private final ScalingProjectGenerator mGenerator;
+
+    private final String mGradleVersion;
+
+    private final int mIterations;
+
+    private ScalingBenchmark(File sourceDir, File workDir, File reportDir,
+                             String gradleVersion, String agpVersion, int iterations) {
+        this.mWorkDir = workDir;
+        this.mReportDir = reportDir;
+        this.mGenerator = new ScalingProjectGenerator(sourceDir, agpVersion);
+        this.mGradleVersion = gradleVersion;
+        this.mIterations = iterations;
+    }
+
+    /**
+     * @param args source dir, work dir, report dir, comma separated aar counts, flavor count,
+     *             gradle version, AGP version, iterations
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 8) {
+            throw new IllegalArgumentException("Usage: ScalingBenchmark <sourceDir> <workDir> <reportDir> "
+                    + "<aarCounts> <flavorCount> <gradleVersion> <agpVersion> <iterations>");
+        }
+        ScalingBenchmark benchmark = new ScalingBenchmark(new File(args[0]), new File(args[1]), new File(args[2]),
+                args[5], args[6], Integer.parseInt(args[7]));
+        int flavorCount = Integer.parseInt(args[4]);
+        List<Result> results = new ArrayList<>();
+        for (String aarCount : args[3].split(",")) {
+            results.add(benchmark.measure(Integer.parseInt(aarCount.trim()), flavorCount));
+            // written after every count, the large counts take long and may be stopped
+            benchmark.writeReport(results);
+        }
+    }
+
+    private Result measure(int aarCount, int flavorCount) throws IOException {
+        File projectDir = new File(mWorkDir, aarCount + "-aars-" + flavorCount + "-flavors");
+        ScalingProjectGenerator.delete(projectDir);
+        mGenerator.generate(projectDir, aarCount, flavorCount);
+        String assembleTask = ":" + ScalingProjectGenerator.MAIN_MODULE + ":assemble"
+                + capitalize(ScalingProjectGenerator.variantName(flavorCount));
+        System.out.println("[fat-aar]Scaling benchmark, " + aarCount + " aars, " + flavorCount + " flavors");
+
+        // the daemon and the included plugin build are warmed up first
+        run(projectDir, "help");
+
+        Result result = new Result(aarCount, flavorCount);
+        List<Long> configurations = new ArrayList<>();
+        List<Long> cleanBuilds = new ArrayList<>();
+        List<Long> noOpBuilds = new ArrayList<>();
+        List<Long> incrementalBuilds = new ArrayList<>();
+        for (int i = 0; i < mIterations; i++) {
+            configurations.add(run(projectDir, assembleTask, "--dry-run"));
+            cleanBuilds.add(run(projectDir, "clean", assembleTask, "--no-build-cache"));
+            verifyBundledClasses(projectDir, aarCount);
+            noOpBuilds.add(run(projectDir, assembleTask));
+            ScalingProjectGenerator.changeModule(projectDir, i + 1);
+            incrementalBuilds.add(run(projectDir, assembleTask));
+            verifyBundledClasses(projectDir, aarCount);
+        }
+        result.mConfigurationMs = median(configurations);
+        result.mCleanBuildMs = median(cleanBuilds);
+        result.mNoOpBuildMs = median(noOpBuilds);
+        result.mIncrementalBuildMs = median(incrementalBuilds);
+
+        File metricsReport = new File(projectDir, ScalingProjectGenerator.MAIN_MODULE + "/build/reports/fat-aar/"
+                + ScalingProjectGenerator.variantName(flavorCount) + ".json");
+        if (metricsReport.isFile()) {
+            Files.createDirectories(mReportDir.toPath());
+            Files.copy(metricsReport.toPath(), new File(mReportDir, aarCount + "-aars-stages.json").toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+        return result;
+    }
+
+    /**
+     * @return wall time of the build in milliseconds
+     */
+    private long run(File projectDir, String... arguments) {
+        List<String> argumentList = new ArrayList<>(Arrays.asList(arguments));
+        argumentList.add("--stacktrace");
+        GradleRunner runner = GradleRunner.create()
+                .withProjectDir(projectDir)
+                .withGradleVersion(mGradleVersion)
+                .withArguments(argumentList);
+        long startTime = System.nanoTime();
+        runner.build();
+        return (System.nanoTime() - startTime) / 1000000;
+    }
+
+    /**
+     * @throws IllegalStateException if a class of the main module or an embedded module is missing in the aar
+     */
+    private static void verifyBundledClasses(File projectDir, int aarCount) throws IOException {
+        File outputDir = new File(projectDir, ScalingProjectGenerator.MAIN_MODULE + "/build/outputs/aar");
+        File[] aars = outputDir.listFiles((dir, name) -> name.endsWith(".aar"));
+        if (aars == null || aars.length != 1) {
+            throw new IllegalStateException("Expect one aar in " + outputDir + ", found "
+                    + (aars == null ? 0 : aars.length));
+        }
+        Set<String> classes = new HashSet<>();
+        try (ZipFile aar = new ZipFile(aars[0])) {
+            ZipEntry classesJar = aar.getEntry("classes.jar");
+            if (classesJar == null) {
+                throw new IllegalStateException("No classes.jar in " + aars[0]);
+            }
+            try (ZipInputStream inputStream = new ZipInputStream(aar.getInputStream(classesJar))) {
+                ZipEntry entry;
+                while ((entry = inputStream.getNextEntry()) != null) {
+                    classes.add(entry.getName());
+                }
+            }
+        }
+        List<String> missing = new ArrayList<>();
+        for (String expected : ScalingProjectGenerator.expectedClasses(aarCount)) {
+            if (!classes.contains(expected)) {
+                missing.add(expected);
+            }
+        }
+        if (!missing.isEmpty()) {
+            throw new IllegalStateException("Classes missing in classes.jar of " + aars[0] + ": " + missing);
+        }
+    }
+
+    private void writeReport(List<Result> results) throws IOException {
+        Files.createDirectories(mReportDir.toPath());
+        try (BufferedWriter writer = Files.newBufferedWriter(new File(mReportDir, "scaling.json").toPath(),
+                StandardCharsets.UTF_8)) {
+            writer.write("{\n");
+            writer.write("  \"gradleVersion\": \"" + mGradleVersion + "\",\n");
+            writer.write("  \"iterations\": " + mIterations + ",\n");
+            writer.write("  \"results\": [");
+            for (int i = 0; i < results.size(); i++) {
+                Result result = results.get(i);
+                writer.write(i == 0 ? "\n" : ",\n");
+                writer.write("    {\"aars\": " + result.mAarCount
+                        + ", \"flavors\": " + result.mFlavorCount
+                        + ", \"configurationMs\": " + result.mConfigurationMs
+                        + ", \"cleanBuildMs\": " + result.mCleanBuildMs
+                        + ", \"noOpBuildMs\": " + result.mNoOpBuildMs
+                        + ", \"incrementalBuildMs\": " + result.mIncrementalBuildMs + "}");
+            }
+            writer.write(results.isEmpty() ? "]\n" : "\n  ]\n");
+            writer.write("}\n");
+        }
+
+        // per aar columns stay flat if the plugin scales linearly
+        try (BufferedWriter writer = Files.newBufferedWriter(new File(mReportDir, "scaling.md").toPath(),
+                StandardCharsets.UTF_8)) {
+            writer.write("| aars | flavors | configuration ms | clean build ms | no-op build ms | incremental build ms "
+                    + "| configuration ms/aar | clean build ms/aar |\n");
+            writer.write("|---|---|---|---|---|---|---|---|\n");
+            for (Result result : results) {
+                writer.write("| " + result.mAarCount
+                        + " | " + result.mFlavorCount
+                        + " | " + result.mConfigurationMs
+                        + " | " + result.mCleanBuildMs
+                        + " | " + result.mNoOpBuildMs
+                        + " | " + result.mIncrementalBuildMs
+                        + " | " + String.format("%.1f", (double) result.mConfigurationMs / result.mAarCount)
+                        + " | " + String.format("%.1f", (double) result.mCleanBuildMs / result.mAarCount)
+                        + " |\n");
+            }
+        }
+        System.out.println("[fat-aar]Scaling report: " + new File(mReportDir, "scaling.md"));
+    }
+
+    private static long median(List<Long> values) {
+        List<Long> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        return sorted.get(sorted.size() / 2);
+    }
+
+    private static String capitalize(String name) {
+        return name.isEmpty() ? name : Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private static final class Result {
+
+        private final int mAarCount;
+
+        private final int mFlavorCount;
+
+        private long mConfigurationMs;
+
+        private long mCleanBuildMs;
+
+        private long mNoOpBuildMs;
+
+        private long mIncrementalBuildMs;
+
+        Result(int aarCount, int flavorCount) {
+            this.mAarCount = aarCount;
+            this.mFlavorCount = flavorCount;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.kezong.fataar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates a project in the layout of example/: lib-main embeds the project aars lib-aar0..n,
+ * the local aars in lib-main/libs and lib-java, with the given count of flavors.
+ * <p>
+ * One aar in ten is a local aar, the others are library projects with a class, resources and an asset,
+ * so every stage of fat-aar has some work per aar.
+ */
+final class ScalingProjectGenerator {
+
+    static final String MAIN_MODULE = "lib-main";
+
+    private static final String CHANGED_CLASS = "src/main/java/com/kezong/scaling/aar0/AarClass.java";
+
+    private final File mSourceDir;
+
+    private final String mAgpVersion;
+
+    /**
+     * @param sourceDir the plugin build, included by the generated project
+     */
+    ScalingProjectGenerator(File sourceDir, String agpVersion) {
+        this.mSourceDir = sourceDir;
+        this.mAgpVersion = agpVersion;
+    }
+
+    static int localAarCount(int aarCount) {
+        return Math.max(1, aarCount / 10);
+    }
+
+    void generate(File projectDir, int aarCount, int flavorCount) throws IOException {
+        int localAarCount = localAarCount(aarCount);
+        int projectAarCount = aarCount - localAarCount;
+
+        StringBuilder settings = new StringBuilder();
+        settings.append("include ':").append(MAIN_MODULE).append("'\n");
+        settings.append("include ':lib-java'\n");
+        for (int i = 0; i < projectAarCount; i++) {
+            settings.append("include ':lib-aar").append(i).append("'\n");
+        }
+        settings.append("\nincludeBuild('").append(escape(mSourceDir.getAbsolutePath())).append("') {\n")
+                .append("    dependencySubstitution {\n")
+                .append("        substitute module('com.github.kezong:fat-aar') using project(':')\n")
+                .append("    }\n")
+                .append("}\n");
+        write(new File(projectDir, "settings.gradle"), settings.toString());
+
+        write(new File(projectDir, "build.gradle"), "buildscript {\n"
+                + "    repositories {\n"
+                + "        mavenCentral()\n"
+                + "        google()\n"
+                + "    }\n"
+                + "    dependencies {\n"
+                + "        classpath 'com.android.tools.build:gradle:" + mAgpVersion + "'\n"
+                + "        classpath 'com.github.kezong:fat-aar:1.3.8'\n"
+                + "    }\n"
+                + "}\n"
+                + "\n"
+                + "allprojects {\n"
+                + "    repositories {\n"
+                + "        mavenCentral()\n"
+                + "        google()\n"
+                + "    }\n"
+                + "}\n");
+        write(new File(projectDir, "gradle.properties"), "android.useAndroidX=true\n"
+                + "org.gradle.jvmargs=-Xmx4g\n"
+                + "org.gradle.caching=true\n");
+        String sdkDir = System.getenv("ANDROID_SDK_ROOT") != null
+                ? System.getenv("ANDROID_SDK_ROOT") : System.getenv("ANDROID_HOME");
+        if (sdkDir != null) {
+            write(new File(projectDir, "local.properties"), "sdk.dir=" + escape(sdkDir) + "\n");
+        }
+
+        generateMainModule(new File(projectDir, MAIN_MODULE), projectAarCount, localAarCount, flavorCount);
+        generateJavaModule(new File(projectDir, "lib-java"));
+        for (int i = 0; i < projectAarCount; i++) {
+            generateAarModule(new File(projectDir, "lib-aar" + i), i);
+        }
+    }
+
+    /**
+     * Change a method of lib-aar0, which changes its aar and nothing else.
+     */
+    static void changeModule(File projectDir, int run) throws IOException {
+        write(new File(projectDir, "lib-aar0/" + CHANGED_CLASS), aarClass(0, run));
+    }
+
+    /**
+     * The classes of the main module, lib-java and the project aars, the local aars have no classes.
+     */
+    static List<String> expectedClasses(int aarCount) {
+        List<String> classes = new ArrayList<>();
+        classes.add("com/kezong/scaling/main/MainClass.class");
+        classes.add("com/kezong/scaling/java/JavaClass.class");
+        for (int i = 0; i < aarCount - localAarCount(aarCount); i++) {
+            classes.add("com/kezong/scaling/aar" + i + "/AarClass.class");
+        }
+        return classes;
+    }
+
+    /**
+     * The variant built by the harness, the first flavor if any.
+     */
+    static String variantName(int flavorCount) {
+        return flavorCount > 0 ? "flavor0Debug" : "debug";
+    }
+
+    private static void generateMainModule(File moduleDir, int projectAarCount, int localAarCount, int flavorCount)
+            throws IOException {
+        StringBuilder flavors = new StringBuilder();
+        if (flavorCount > 0) {
+            flavors.append("    flavorDimensions \"default\"\n\n    productFlavors {\n");
+            for (int i = 0; i < flavorCount; i++) {
+                flavors.append("        flavor").append(i).append(" {}\n");
+            }
+            flavors.append("    }\n");
+        }
+
+        StringBuilder dependencies = new StringBuilder();
+        dependencies.append("    embed project(path: ':lib-java', configuration: 'default')\n");
+        for (int i = 0; i < projectAarCount; i++) {
+            dependencies.append("    embed project(path: ':lib-aar").append(i).append("', configuration: 'default')\n");
+        }
+        for (int i = 0; i < localAarCount; i++) {
+            dependencies.append("    embed (name: 'lib-aar-local").append(i).append("', ext: 'aar')\n");
+            writeLocalAar(new File(moduleDir, "libs/lib-aar-local" + i + ".aar"), i);
+        }
+
+        write(new File(moduleDir, "build.gradle"), "apply plugin: 'com.android.library'\n"
+                + "apply plugin: 'com.kezong.fat-aar'\n"
+                + "\n"
+                + "repositories {\n"
+                + "    flatDir {\n"
+                + "        dirs 'libs'\n"
+                + "    }\n"
+                + "}\n"
+                + "\n"
+                + "android {\n"
+                + "    compileSdkVersion 29\n"
+                + "\n"
+                + "    defaultConfig {\n"
+                + "        minSdkVersion 16\n"
+                + "        targetSdkVersion 29\n"
+                + "    }\n"
+                + "\n"
+                + flavors
+                + "}\n"
+                + "\n"
+                + "dependencies {\n"
+                + dependencies
+                + "}\n");
+        write(new File(moduleDir, "src/main/AndroidManifest.xml"), manifest("com.kezong.scaling.main"));
+        write(new File(moduleDir, "src/main/java/com/kezong/scaling/main/MainClass.java"),
+                "package com.kezong.scaling.main;\n\npublic class MainClass {\n}\n");
+    }
+
+    private static void generateJavaModule(File moduleDir) throws IOException {
+        write(new File(moduleDir, "build.gradle"), "apply plugin: 'java-library'\n\n"
+                + "sourceCompatibility = \"1.8\"\n"
+                + "targetCompatibility = \"1.8\"\n");
+        write(new File(moduleDir, "src/main/java/com/kezong/scaling/java/JavaClass.java"),
+                "package com.kezong.scaling.java;\n\npublic class JavaClass {\n}\n");
+    }
+
+    private static void generateAarModule(File moduleDir, int index) throws IOException {
+        String packageName = "com.kezong.scaling.aar" + index;
+        write(new File(moduleDir, "build.gradle"), "apply plugin: 'com.android.library'\n"
+                + "\n"
+                + "android {\n"
+                + "    compileSdkVersion 29\n"
+                + "\n"
+                + "    defaultConfig {\n"
+                + "        minSdkVersion 16\n"
+                + "        targetSdkVersion 29\n"
+                + "        consumerProguardFiles 'proguard-rules.pro'\n"
+                + "    }\n"
+                + "}\n");
+        write(new File(moduleDir, "proguard-rules.pro"), "-keep class " + packageName + ".** { *; }\n"
+                + "-dontwarn javax.annotation.**\n");
+        write(new File(moduleDir, "src/main/AndroidManifest.xml"), manifest(packageName));
+        write(new File(moduleDir, CHANGED_CLASS.replace("aar0", "aar" + index)), aarClass(index, 0));
+        write(new File(moduleDir, "src/main/res/values/strings.xml"), "<resources>\n"
+                + "    <string name=\"aar_name_" + index + "\">aar" + index + "</string>\n"
+                + "</resources>\n");
+        write(new File(moduleDir, "src/main/assets/aar" + index + ".txt"), "aar" + index + "\n");
+    }
+
+    private static String aarClass(int index, int run) {
+        return "package com.kezong.scaling.aar" + index + ";\n"
+                + "\n"
+                + "public class AarClass {\n"
+                + "\n"
+                + "    public static int getName() {\n"
+                + "        return R.string.aar_name_" + index + " + " + run + ";\n"
+                + "    }\n"
+                + "}\n";
+    }
+
+    private static String manifest(String packageName) {
+        return "<manifest xmlns:android=\"http://schemas.android.com/apk/res/android\"\n"
+                + "    package=\"" + packageName + "\" />\n";
+    }
+
+    /**
+     * A local aar with a manifest, an empty classes.jar and R.txt, as a prebuilt aar without code.
+     */
+    private static void writeLocalAar(File aar, int index) throws IOException {
+        String packageName = "com.kezong.scaling.local" + index;
+        Files.createDirectories(aar.getParentFile().toPath());
+        try (ZipOutputStream outputStream = new ZipOutputStream(Files.newOutputStream(aar.toPath()))) {
+            putEntry(outputStream, "AndroidManifest.xml", manifest(packageName).getBytes(StandardCharsets.UTF_8));
+            putEntry(outputStream, "classes.jar", emptyJar());
+            putEntry(outputStream, "R.txt", ("int string local_name_" + index + " 0x7f010001\n").getBytes(StandardCharsets.UTF_8));
+            putEntry(outputStream, "res/values/values.xml", ("<resources>\n"
+                    + "    <string name=\"local_name_" + index + "\">local" + index + "</string>\n"
+                    + "</resources>\n").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static byte[] emptyJar() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream outputStream = new ZipOutputStream(bytes)) {
+            putEntry(outputStream, "META-INF/MANIFEST.MF", "Manifest-Version: 1.0\n".getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void putEntry(ZipOutputStream outputStream, String name, byte[] bytes) throws IOException {
+        outputStream.putNextEntry(new ZipEntry(name));
+        outputStream.write(bytes);
+        outputStream.closeEntry();
+    }
+
+    private static void write(File file, String content) throws IOException {
+        Files.createDirectories(file.getParentFile().toPath());
+        try (OutputStream outputStream = Files.newOutputStream(file.toPath())) {
+            outputStream.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    static void delete(File file) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(file.toPath())) {
+            for (Path path : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * paths in groovy strings and properties files
+     */
+    private static String escape(String path) {
+        return path.replace("\\", "\\\\");
+    }
+}
@@ -0,0 +1,145 @@
+package com.kezong.fataar;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.Project;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DedupFoldersTaskTest {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private Project mProject;
+
+    private File mOutputDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mProject = ProjectBuilder.builder().withProjectDir(mTemporaryFolder.newFolder("project")).build();
+        mOutputDir = new File(mTemporaryFolder.getRoot(), "merged");
+    }
+
+    @Test
+    public void keepsIdenticalFilesOnce() throws IOException {
+        File lib1 = folder("lib1", "res");
+        File lib2 = folder("lib2", "res");
+        write(lib1, "layout/common.xml", "<LinearLayout/>");
+        write(lib2, "layout/common.xml", "<LinearLayout/>");
+        write(lib1, "drawable/a.xml", "a");
+        write(lib2, "drawable/b.xml", "b");
+
+        createTask(DedupResourcesTask.class, DuplicatePolicy.FAIL, lib1, lib2).dedup();
+
+        assertEquals("<LinearLayout/>", read("layout/common.xml"));
+        assertEquals("a", read("drawable/a.xml"));
+        assertEquals("b", read("drawable/b.xml"));
+        assertEquals(1, new File(mOutputDir, "layout").list().length);
+    }
+
+    @Test
+    public void laterFolderWinsOnConflict() throws IOException {
+        File lib1 = folder("lib1", "res");
+        File lib2 = folder("lib2", "res");
+        write(lib1, "layout/common.xml", "<LinearLayout/>");
+        write(lib2, "layout/common.xml", "<FrameLayout/>");
+
+        createTask(DedupResourcesTask.class, DuplicatePolicy.WARN, lib1, lib2).dedup();
+
+        assertEquals("<FrameLayout/>", read("layout/common.xml"));
+    }
+
+    @Test
+    public void failsOnConflictWithFailPolicy() throws IOException {
+        File lib1 = folder("lib1", "assets");
+        File lib2 = folder("lib2", "assets");
+        write(lib1, "config/app.json", "{}");
+        write(lib2, "config/app.json", "{\"debug\":true}");
+
+        try {
+            createTask(DedupAssetsTask.class, DuplicatePolicy.FAIL, lib1, lib2).dedup();
+            fail("conflict is not reported");
+        } catch (GradleException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("config/app.json in lib1 and lib2"));
+        }
+    }
+
+    @Test
+    public void keepsDifferentValuesFilesRenamed() throws IOException {
+        File lib1 = folder("lib1", "res");
+        File lib2 = folder("lib2", "res");
+        File lib3 = folder("lib3", "res");
+        write(lib1, "values/values.xml", "<resources>1</resources>");
+        write(lib2, "values/values.xml", "<resources>2</resources>");
+        write(lib3, "values/values.xml", "<resources>1</resources>");
+        write(lib1, "values-zh/values-zh.xml", "<resources>zh 1</resources>");
+        write(lib2, "values-zh/values-zh.xml", "<resources>zh 2</resources>");
+
+        // values are merged by AGP later, they are not conflicts
+        createTask(DedupResourcesTask.class, DuplicatePolicy.FAIL, lib1, lib2, lib3).dedup();
+
+        assertEquals("<resources>1</resources>", read("values/values.xml"));
+        assertEquals("<resources>2</resources>", read("values/values_fataar1.xml"));
+        // identical to lib1
+        assertFalse(new File(mOutputDir, "values/values_fataar2.xml").exists());
+        assertEquals("<resources>zh 1</resources>", read("values-zh/values-zh.xml"));
+        assertEquals("<resources>zh 2</resources>", read("values-zh/values-zh_fataar1.xml"));
+    }
+
+    @Test
+    public void filtersJniLibsByAbi() throws IOException {
+        File lib1 = folder("lib1", "jni");
+        File lib2 = folder("lib2", "jni");
+        write(lib1, "arm64-v8a/libfoo.so", "foo arm64");
+        write(lib1, "x86/libfoo.so", "foo x86");
+        write(lib2, "arm64-v8a/libbar.so", "bar arm64");
+
+        DedupJniLibsTask task = createTask(DedupJniLibsTask.class, DuplicatePolicy.FAIL, lib1, lib2);
+        task.setAbiFilters(new HashSet<>(Arrays.asList("arm64-v8a")));
+        task.dedup();
+
+        assertEquals("foo arm64", read("arm64-v8a/libfoo.so"));
+        assertEquals("bar arm64", read("arm64-v8a/libbar.so"));
+        assertFalse(new File(mOutputDir, "x86").exists());
+    }
+
+    private <T extends DedupFoldersTask> T createTask(Class<T> type, DuplicatePolicy policy, File... folders) {
+        T task = mProject.getTasks().create("dedup" + mProject.getTasks().size(), type);
+        task.setFolders(Arrays.asList(folders));
+        task.setDuplicatePolicy(policy);
+        task.setOutputDir(mOutputDir);
+        return task;
+    }
+
+    /**
+     * The folders are in the exploded folder of the aar, named by the artifact as in the build.
+     */
+    private File folder(String library, String name) throws IOException {
+        return mTemporaryFolder.newFolder("exploded", library, name);
+    }
+
+    private static void write(File folder, String path, String content) throws IOException {
+        File file = new File(folder, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String read(String path) throws IOException {
+        return new String(Files.readAllBytes(new File(mOutputDir, path).toPath()), StandardCharsets.UTF_8);
+    }
+}
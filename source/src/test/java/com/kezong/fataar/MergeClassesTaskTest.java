@@ -0,0 +1,212 @@
+package com.kezong.fataar;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.Project;
+import org.gradle.api.file.FileType;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.gradle.work.ChangeType;
+import org.gradle.work.FileChange;
+import org.gradle.work.InputChanges;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MergeClassesTaskTest {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private Project mProject;
+
+    private File mOutputDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mProject = ProjectBuilder.builder().withProjectDir(mTemporaryFolder.newFolder("project")).build();
+        mOutputDir = new File(mTemporaryFolder.getRoot(), "merged");
+    }
+
+    @Test
+    public void mergesIdenticalDuplicatesOnce() throws IOException, InterruptedException {
+        File lib1 = writeAar("lib1.aar", entries("com/common/Util.class", "util", "com/lib1/A.class", "a"),
+                entries("com/common/Log.class", "log"));
+        File lib2 = writeAar("lib2.aar", entries("com/common/Util.class", "util", "com/lib2/B.class", "b"),
+                entries("com/common/Log.class", "log"));
+
+        MergeClassesTask task = createTask(DuplicatePolicy.FAIL, lib1, lib2);
+        task.merge(fullChanges());
+
+        assertEquals("util", read("com/common/Util.class"));
+        assertEquals("log", read("com/common/Log.class"));
+        assertEquals("a", read("com/lib1/A.class"));
+        assertEquals("b", read("com/lib2/B.class"));
+        // only the entries colliding by crc and size are hashed, the digests are kept for the next run
+        List<String> manifest = Files.readAllLines(task.getEntriesManifest().toPath(), StandardCharsets.UTF_8);
+        int hashed = 0;
+        for (String line : manifest) {
+            if (line.startsWith("com/common/Util.class ")) {
+                assertEquals(line, 3, line.substring(line.indexOf(' ') + 1).split(":").length);
+                hashed++;
+            } else if (line.startsWith("com/lib1/A.class ")) {
+                assertEquals(line, 2, line.substring(line.indexOf(' ') + 1).split(":").length);
+            }
+        }
+        assertEquals(2, hashed);
+    }
+
+    @Test
+    public void lastJarWinsOnConflict() throws IOException, InterruptedException {
+        File lib1 = writeAar("lib1.aar", entries("com/common/Util.class", "util v1"), null);
+        File lib2 = writeAar("lib2.aar", entries("com/common/Util.class", "util v2!"), null);
+
+        createTask(DuplicatePolicy.WARN, lib1, lib2).merge(fullChanges());
+
+        assertEquals("util v2!", read("com/common/Util.class"));
+    }
+
+    @Test
+    public void failsOnConflictWithFailPolicy() throws IOException, InterruptedException {
+        File lib1 = writeAar("lib1.aar", entries("com/common/Util.class", "util v1",
+                "META-INF/NOTICE", "notice 1"), null);
+        File lib2 = writeAar("lib2.aar", entries("com/common/Util.class", "util v2!",
+                "META-INF/NOTICE", "notice 2"), null);
+
+        try {
+            createTask(DuplicatePolicy.FAIL, lib1, lib2).merge(fullChanges());
+            fail("conflict is not reported");
+        } catch (GradleException e) {
+            assertTrue(e.getMessage(),
+                    e.getMessage().contains("com/common/Util.class in lib1.aar!/classes.jar and lib2.aar!/classes.jar"));
+            // only classes are reported
+            assertFalse(e.getMessage(), e.getMessage().contains("NOTICE"));
+        }
+    }
+
+    @Test
+    public void restoresPreviousOwnerWhenConflictIsRemoved() throws IOException, InterruptedException {
+        File lib1 = writeAar("lib1.aar", entries("com/common/Util.class", "util v1"), null);
+        File lib2 = writeAar("lib2.aar", entries("com/common/Util.class", "util v2!",
+                "com/lib2/B.class", "b"), null);
+        MergeClassesTask task = createTask(DuplicatePolicy.WARN, lib1, lib2);
+        task.merge(fullChanges());
+        assertEquals("util v2!", read("com/common/Util.class"));
+
+        writeAar("lib2.aar", entries("com/lib2/C.class", "c"), null);
+        task.merge(incrementalChanges(lib2));
+
+        assertEquals("util v1", read("com/common/Util.class"));
+        assertEquals("c", read("com/lib2/C.class"));
+        assertFalse(new File(mOutputDir, "com/lib2/B.class").exists());
+    }
+
+    private MergeClassesTask createTask(DuplicatePolicy policy, File... aars) {
+        MergeClassesTask task = mProject.getTasks().create("merge" + mProject.getTasks().size(), MergeClassesTask.class);
+        task.getAars().from((Object[]) aars);
+        task.setMergeAarLibs(true);
+        task.setDuplicatePolicy(policy);
+        task.setOutputDir(mOutputDir);
+        task.setEntriesManifest(new File(mTemporaryFolder.getRoot(), "entries.txt"));
+        return task;
+    }
+
+    private String read(String entry) throws IOException {
+        return new String(Files.readAllBytes(new File(mOutputDir, entry).toPath()), StandardCharsets.UTF_8);
+    }
+
+    private static InputChanges fullChanges() {
+        return (InputChanges) Proxy.newProxyInstance(MergeClassesTaskTest.class.getClassLoader(),
+                new Class[]{InputChanges.class},
+                (proxy, method, args) -> method.getName().equals("isIncremental") ? false : null);
+    }
+
+    private static InputChanges incrementalChanges(File modified) {
+        FileChange change = (FileChange) Proxy.newProxyInstance(MergeClassesTaskTest.class.getClassLoader(),
+                new Class[]{FileChange.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getFile":
+                            return modified;
+                        case "getChangeType":
+                            return ChangeType.MODIFIED;
+                        case "getFileType":
+                            return FileType.FILE;
+                        case "getNormalizedPath":
+                            return modified.getName();
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        return (InputChanges) Proxy.newProxyInstance(MergeClassesTaskTest.class.getClassLoader(),
+                new Class[]{InputChanges.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("isIncremental")) {
+                        return true;
+                    }
+                    return Collections.singletonList(change);
+                });
+    }
+
+    private static Map<String, String> entries(String... nameAndContent) {
+        Map<String, String> entries = new LinkedHashMap<>();
+        for (int i = 0; i < nameAndContent.length; i += 2) {
+            entries.put(nameAndContent[i], nameAndContent[i + 1]);
+        }
+        return entries;
+    }
+
+    /**
+     * @param libsJar entries of libs/local.jar, nullable
+     */
+    private File writeAar(String name, Map<String, String> classesJar, Map<String, String> libsJar)
+            throws IOException {
+        File aar = new File(mTemporaryFolder.getRoot(), name);
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("AndroidManifest.xml", "<manifest package=\"com.example\"/>".getBytes(StandardCharsets.UTF_8));
+        entries.put("classes.jar", zip(toBytes(classesJar)));
+        if (libsJar != null) {
+            entries.put("libs/local.jar", zip(toBytes(libsJar)));
+        }
+        try (FileOutputStream outputStream = new FileOutputStream(aar)) {
+            outputStream.write(zip(entries));
+        }
+        return aar;
+    }
+
+    private static Map<String, byte[]> toBytes(Map<String, String> entries) {
+        Map<String, byte[]> result = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().getBytes(StandardCharsets.UTF_8));
+        }
+        return result;
+    }
+
+    private static byte[] zip(Map<String, byte[]> entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                zip.putNextEntry(new ZipEntry(entry.getKey()));
+                zip.write(entry.getValue());
+                zip.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,108 @@
+package com.kezong.fataar;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.Project;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MergeJarsTaskTest {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private Project mProject;
+
+    private File mOutputDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mProject = ProjectBuilder.builder().withProjectDir(mTemporaryFolder.newFolder("project")).build();
+        mOutputDir = new File(mTemporaryFolder.getRoot(), "merged");
+    }
+
+    @Test
+    public void laterJarOfSameNameWins() throws IOException {
+        // the winner follows the declared order, not the content
+        File lib2 = writeJar("lib2/libs/common.jar", "com/common/Util.class", "z");
+        File lib1 = writeJar("lib1/libs/common.jar", "com/common/Util.class", "a");
+
+        createTask(false, DuplicatePolicy.WARN, lib2, lib1).merge();
+        assertEquals("a", readEntry(new File(mOutputDir, "common.jar"), "com/common/Util.class"));
+
+        createTask(false, DuplicatePolicy.WARN, lib1, lib2).merge();
+        assertEquals("z", readEntry(new File(mOutputDir, "common.jar"), "com/common/Util.class"));
+    }
+
+    @Test
+    public void laterClassWinsWhenConsolidated() throws IOException {
+        File lib1 = writeJar("lib1/libs/one.jar", "com/common/Util.class", "z");
+        File lib2 = writeJar("lib2/libs/two.jar", "com/common/Util.class", "a");
+
+        createTask(true, DuplicatePolicy.WARN, lib1, lib2).merge();
+
+        assertEquals("a", readEntry(new File(mOutputDir, MergeJarsTask.CONSOLIDATED_JAR_NAME), "com/common/Util.class"));
+    }
+
+    @Test
+    public void failsOnSameNameConflictWithFailPolicy() throws IOException {
+        File lib1 = writeJar("lib1/libs/common.jar", "com/common/Util.class", "a");
+        File lib2 = writeJar("lib2/libs/common.jar", "com/common/Util.class", "b");
+        File identical = writeJar("lib3/libs/common.jar", "com/common/Util.class", "b");
+
+        try {
+            createTask(false, DuplicatePolicy.FAIL, lib1, lib2, identical).merge();
+            fail("conflict is not reported");
+        } catch (GradleException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("common.jar in " + lib1 + " and " + lib2));
+            assertFalse(e.getMessage(), e.getMessage().contains(identical.getPath()));
+        }
+    }
+
+    private MergeJarsTask createTask(boolean consolidate, DuplicatePolicy policy, File... jars) {
+        MergeJarsTask task = mProject.getTasks().create("mergeJars" + mProject.getTasks().size(), MergeJarsTask.class);
+        task.getJars().from(Arrays.asList(jars));
+        task.setConsolidate(consolidate);
+        task.setDuplicatePolicy(policy);
+        task.setOutputDir(mOutputDir);
+        return task;
+    }
+
+    private File writeJar(String path, String entry, String content) throws IOException {
+        File jar = new File(mTemporaryFolder.getRoot(), path);
+        jar.getParentFile().mkdirs();
+        try (ZipOutputStream outputStream = new ZipOutputStream(Files.newOutputStream(jar.toPath()))) {
+            outputStream.putNextEntry(new ZipEntry(entry));
+            outputStream.write(content.getBytes(StandardCharsets.UTF_8));
+            outputStream.closeEntry();
+        }
+        return jar;
+    }
+
+    private static String readEntry(File jar, String entry) throws IOException {
+        try (ZipFile zipFile = new ZipFile(jar)) {
+            byte[] bytes = new byte[(int) zipFile.getEntry(entry).getSize()];
+            try (DataInputStream inputStream = new DataInputStream(zipFile.getInputStream(zipFile.getEntry(entry)))) {
+                inputStream.readFully(bytes);
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
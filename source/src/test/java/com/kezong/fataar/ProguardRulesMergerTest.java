@@ -0,0 +1,143 @@
+package com.kezong.fataar;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ProguardRulesMergerTest {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void parsesMultiLineRulesAndComments() {
+        List<ProguardRulesMerger.Rule> rules = ProguardRulesMerger.parse(
+                "# consumer rules of lib1\n"
+                        + "-keep class com.lib1.Foo { # members\n"
+                        + "    public <init>();\n"
+                        + "    -keep *** get*(); # not an option inside braces\n"
+                        + "}\n"
+                        + "-dontwarn com.lib1.**, com.lib2.Bar # trailing\n");
+
+        assertEquals(2, rules.size());
+        assertTrue(rules.get(0).isOption("-keep"));
+        assertTrue(rules.get(1).isOption("-dontwarn"));
+        assertEquals(Arrays.asList("com.lib1.**", "com.lib2.Bar"), rules.get(1).getArguments());
+    }
+
+    @Test
+    public void parsesIfWithItsKeep() {
+        List<ProguardRulesMerger.Rule> rules = ProguardRulesMerger.parse(
+                "-if class **.databinding.*Binding\n"
+                        + "# the keep belongs to the if\n"
+                        + "-keep class <1>.databinding.<2>Binding { *; }\n"
+                        + "-keep class com.lib1.Foo\n");
+
+        assertEquals(2, rules.size());
+        assertTrue(rules.get(0).isOption("-if"));
+        assertTrue(rules.get(0).getArguments().contains("-keep"));
+        assertTrue(rules.get(1).isOption("-keep"));
+        assertEquals(Arrays.asList("class", "com.lib1.Foo"), rules.get(1).getArguments());
+    }
+
+    @Test
+    public void ignoresTextWithoutOptions() {
+        assertTrue(ProguardRulesMerger.parse("# nothing to keep\n\n").isEmpty());
+        assertEquals(1, ProguardRulesMerger.parse("stray -dontoptimize").size());
+    }
+
+    @Test
+    public void appendsRulesOnce() throws IOException {
+        File output = write("output.txt", "-keep class com.lib1.Foo { *; }\n");
+        File lib1 = write("lib1.txt", "-keep   class com.lib1.Foo {\n *;\n}\n-dontwarn com.lib1.**\n");
+        File lib2 = write("lib2.txt", "# same rule, another format\n-dontwarn\tcom.lib1.** # lib1\n"
+                + "-keepattributes Signature\n");
+        File missing = new File(mTemporaryFolder.getRoot(), "missing.txt");
+
+        assertEquals(2, ProguardRulesMerger.merge(Arrays.asList(lib1, lib2, missing), output, false));
+
+        List<ProguardRulesMerger.Rule> rules = ProguardRulesMerger.parse(read(output));
+        assertEquals(3, rules.size());
+        assertTrue(rules.get(0).isOption("-keep"));
+        assertTrue(rules.get(1).isOption("-dontwarn"));
+        assertTrue(rules.get(2).isOption("-keepattributes"));
+    }
+
+    @Test
+    public void keepsIfPairsWithDifferentKeep() throws IOException {
+        File output = new File(mTemporaryFolder.getRoot(), "out/output.txt");
+        File lib1 = write("lib1.txt", "-if class com.lib1.Foo\n-keep class com.lib1.Bar\n");
+        File lib2 = write("lib2.txt", "-if class com.lib1.Foo\n-keep class com.lib2.Bar\n");
+
+        assertEquals(0, ProguardRulesMerger.merge(Arrays.asList(lib1, lib2), output, false));
+        assertEquals(2, ProguardRulesMerger.parse(read(output)).size());
+    }
+
+    @Test
+    public void collapsesAttributesAndCoveredClasses() throws IOException {
+        File output = write("output.txt", "-keepattributes Signature\n");
+        File lib1 = write("lib1.txt", "-keepattributes Signature,*Annotation*\n"
+                + "-dontwarn com.foo.**\n");
+        File lib2 = write("lib2.txt", "-keepattributes InnerClasses\n"
+                + "-dontwarn com.foo.bar.Baz,com.other.Qux\n"
+                + "-dontwarn com.foo.internal.**\n"
+                + "-dontnote com.foo.bar.Baz\n");
+
+        // com.foo.internal.** is covered by com.foo.**
+        assertEquals(1, ProguardRulesMerger.merge(Arrays.asList(lib1, lib2), output, true));
+
+        String merged = read(output);
+        assertTrue(merged, merged.contains("-keepattributes *Annotation*,InnerClasses"));
+        assertTrue(merged, merged.contains("-dontwarn com.other.Qux"));
+        assertFalse(merged, merged.contains("com.foo.internal"));
+        // -dontnote has no wildcard, nothing is covered
+        assertTrue(merged, merged.contains("-dontnote com.foo.bar.Baz"));
+    }
+
+    @Test
+    public void keepsNegatedFiltersWhenCollapsing() throws IOException {
+        File output = new File(mTemporaryFolder.getRoot(), "output.txt");
+        File lib1 = write("lib1.txt", "-dontwarn com.foo.**\n-dontwarn !com.foo.Bar,com.foo.Baz\n");
+
+        assertEquals(0, ProguardRulesMerger.merge(Collections.singletonList(lib1), output, true));
+        assertTrue(read(output).contains("-dontwarn !com.foo.Bar,com.foo.Baz"));
+    }
+
+    @Test
+    public void keepsNegatedAttributesUncollapsed() throws IOException {
+        File output = write("output.txt", "-keepattributes !LocalVariableTable,*Table\n");
+        File lib1 = write("lib1.txt", "-keepattributes !Signature\n");
+        File lib2 = write("lib2.txt", "-keepattributes Signature,*Annotation*\n");
+
+        assertEquals(0, ProguardRulesMerger.merge(Arrays.asList(lib1, lib2), output, true));
+
+        List<ProguardRulesMerger.Rule> rules = ProguardRulesMerger.parse(read(output));
+        assertEquals(3, rules.size());
+        assertEquals(Arrays.asList("!LocalVariableTable", "*Table"), rules.get(0).getArguments());
+        assertEquals(Collections.singletonList("!Signature"), rules.get(1).getArguments());
+        // the negated rules do not hide the attributes from the plain rule
+        assertEquals(Arrays.asList("Signature", "*Annotation*"), rules.get(2).getArguments());
+    }
+
+    private File write(String name, String content) throws IOException {
+        File file = mTemporaryFolder.newFile(name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,96 @@
+package com.kezong.fataar;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RClassesIndexTest {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mFile;
+
+    @Before
+    public void setUp() {
+        mFile = new File(mTemporaryFolder.getRoot(), "index/release.txt");
+    }
+
+    @Test
+    public void reportsChangedPackages() {
+        RClassesIndex index = new RClassesIndex(mFile);
+        Map<String, String> mapping = new HashMap<>();
+        mapping.put("com/lib1", "com/sdk");
+        mapping.put("com/lib2", "com/sdk");
+        assertEquals(new HashSet<>(mapping.keySet()), index.updatePackageMapping(mapping));
+        assertEquals(Collections.emptySet(), index.updatePackageMapping(new HashMap<>(mapping)));
+
+        Map<String, String> changed = new HashMap<>();
+        // retargeted
+        changed.put("com/lib1", "com/other");
+        // added
+        changed.put("com/lib3", "com/sdk");
+        // com/lib2 removed
+        assertEquals(new HashSet<>(Arrays.asList("com/lib1", "com/lib2", "com/lib3")),
+                index.updatePackageMapping(changed));
+    }
+
+    @Test
+    public void findsClassesReferencingPackages() {
+        RClassesIndex index = new RClassesIndex(mFile);
+        index.putReferences("com/lib1/Foo.class", new HashSet<>(Arrays.asList("com/lib1", "com/lib2")));
+        index.putReferences("com/lib2/Bar.class", Collections.singleton("com/lib2"));
+        index.putReferences("com/lib3/Baz.class", Collections.singleton("com/lib3"));
+
+        assertEquals(new HashSet<>(Arrays.asList("com/lib1/Foo.class", "com/lib2/Bar.class")),
+                index.findReferences(Collections.singleton("com/lib2")));
+        assertEquals(Collections.emptySet(), index.findReferences(Collections.emptySet()));
+
+        index.removeReferences("com/lib2/Bar.class");
+        // a class no longer referencing any R package is dropped
+        index.putReferences("com/lib1/Foo.class", Collections.emptySet());
+        assertEquals(Collections.emptySet(), index.findReferences(Arrays.asList("com/lib1", "com/lib2")));
+        assertEquals(Collections.singleton("com/lib3/Baz.class"),
+                index.findReferences(Collections.singleton("com/lib3")));
+    }
+
+    @Test
+    public void restoresSavedState() throws IOException {
+        RClassesIndex index = new RClassesIndex(mFile);
+        Map<String, String> mapping = new HashMap<>();
+        mapping.put("com/lib1", "com/sdk");
+        mapping.put("com/lib2", "com/sdk");
+        index.updatePackageMapping(mapping);
+        index.putReferences("com/lib1/Foo$Inner.class", new HashSet<>(Arrays.asList("com/lib1", "com/lib2")));
+        index.save();
+        assertTrue(mFile.isFile());
+
+        RClassesIndex restored = new RClassesIndex(mFile);
+        restored.load();
+        assertEquals(Collections.emptySet(), restored.updatePackageMapping(mapping));
+        assertEquals(Collections.singleton("com/lib1/Foo$Inner.class"),
+                restored.findReferences(Collections.singleton("com/lib2")));
+    }
+
+    @Test
+    public void loadsNothingWithoutFile() throws IOException {
+        RClassesIndex index = new RClassesIndex(mFile);
+        index.putReferences("com/lib1/Foo.class", Collections.singleton("com/lib1"));
+        index.load();
+        assertEquals(Collections.emptySet(), index.findReferences(Collections.singleton("com/lib1")));
+        assertEquals(Collections.singleton("com/lib1"),
+                index.updatePackageMapping(Collections.singletonMap("com/lib1", "com/sdk")));
+    }
+}
@@ -0,0 +1,412 @@
+package com.kezong.fataar;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.TypePath;
+import org.objectweb.asm.TypeReference;
+import org.objectweb.asm.util.CheckClassAdapter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RClassesRewriterTest {
+
+    private static final String CLASS_NAME = "com/lib1/Foo";
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private Map<String, String> mTransformTable;
+
+    @Before
+    public void setUp() {
+        mTransformTable = new HashMap<>();
+        for (String type : Arrays.asList("id", "layout", "string")) {
+            mTransformTable.put("com/lib1/R$" + type, "com/sdk/R$" + type);
+            mTransformTable.put("com/lib2/R$" + type, "com/sdk/R$" + type);
+        }
+    }
+
+    @Test
+    public void rewritesOwnersAndDescriptors() throws IOException {
+        File output = rewrite(generateClass(), true);
+        byte[] bytes = Files.readAllBytes(output.toPath());
+        assertValid(bytes);
+
+        List<String> references = collectReferences(bytes);
+        assertTrue(references.toString(), references.contains("field Lcom/sdk/R$string;"));
+        assertTrue(references.toString(), references.contains("method read (Lcom/sdk/R$id;)I"));
+        assertTrue(references.toString(), references.contains("getstatic com/sdk/R$string.app_name I"));
+        assertTrue(references.toString(), references.contains("getstatic com/sdk/R$id.title I"));
+        assertTrue(references.toString(), references.contains("checkcast [Lcom/sdk/R$id;"));
+        assertTrue(references.toString(), references.contains("ldc Lcom/sdk/R$layout;"));
+        // not in the table
+        assertTrue(references.toString(), references.contains("getstatic com/other/R$string.other I"));
+        // a string constant is not a class reference
+        assertTrue(references.toString(), references.contains("ldc com.lib1.R$string"));
+        for (String reference : references) {
+            assertFalse(reference, reference.contains("com/lib1/R$"));
+            assertFalse(reference, reference.contains("com/lib2/R$"));
+        }
+    }
+
+    @Test
+    public void rewritesSignaturesAndLocalVariables() throws IOException {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, CLASS_NAME, null, "java/lang/Object", null);
+        writer.visitField(Opcodes.ACC_PUBLIC, "ids", "Ljava/util/List;",
+                "Ljava/util/List<Lcom/lib1/R$id;>;", null).visitEnd();
+        MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "first",
+                "(Ljava/util/Map;)V", "<T:Ljava/lang/Object;>(Ljava/util/Map<TT;Lcom/lib2/R$string;>;)V", null);
+        method.visitCode();
+        Label start = new Label();
+        Label end = new Label();
+        method.visitLabel(start);
+        method.visitInsn(Opcodes.ACONST_NULL);
+        method.visitVarInsn(Opcodes.ASTORE, 1);
+        method.visitInsn(Opcodes.RETURN);
+        method.visitLabel(end);
+        method.visitLocalVariable("layout", "Lcom/lib1/R$layout;", null, start, end, 1);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+        writer.visitEnd();
+
+        byte[] bytes = Files.readAllBytes(rewrite(writer.toByteArray(), true).toPath());
+        assertValid(bytes);
+        List<String> references = collectReferences(bytes);
+        assertTrue(references.toString(), references.contains("signature Ljava/util/List<Lcom/sdk/R$id;>;"));
+        assertTrue(references.toString(),
+                references.contains("signature <T:Ljava/lang/Object;>(Ljava/util/Map<TT;Lcom/sdk/R$string;>;)V"));
+        assertTrue(references.toString(), references.contains("local Lcom/sdk/R$layout;"));
+    }
+
+    @Test
+    public void collectsReferencedPackages() throws IOException {
+        RClassesRewriter rewriter = new RClassesRewriter();
+        File input = write(generateClass());
+        rewriter.rewrite(input, new File(mTemporaryFolder.getRoot(), "Foo.out.class"), mTransformTable);
+        assertEquals(new HashSet<>(Arrays.asList("com/lib1", "com/lib2", "com/other")), rewriter.getReferencedPackages());
+    }
+
+    @Test
+    public void passesThroughClassWithoutRReferences() throws IOException {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, CLASS_NAME, null, "java/lang/Object", null);
+        writer.visitField(Opcodes.ACC_PUBLIC, "name", "Ljava/lang/String;", null, null).visitEnd();
+        writer.visitEnd();
+        byte[] bytes = writer.toByteArray();
+
+        File output = rewrite(bytes, false);
+        assertArrayEquals(bytes, Files.readAllBytes(output.toPath()));
+    }
+
+    @Test
+    public void rewritesNonAsciiConstantPool() throws IOException {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, CLASS_NAME, null, "java/lang/Object", null);
+        MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "nameWith\u00e9", "()I", null, null);
+        method.visitCode();
+        method.visitLdcInsn("\u4e2d\u6587");
+        method.visitInsn(Opcodes.POP);
+        method.visitFieldInsn(Opcodes.GETSTATIC, "com/lib2/R$string", "app_name", "I");
+        method.visitInsn(Opcodes.IRETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+        writer.visitEnd();
+
+        byte[] bytes = Files.readAllBytes(rewrite(writer.toByteArray(), true).toPath());
+        assertValid(bytes);
+        List<String> references = collectReferences(bytes);
+        assertTrue(references.toString(), references.contains("getstatic com/sdk/R$string.app_name I"));
+        assertTrue(references.toString(), references.contains("ldc \u4e2d\u6587"));
+    }
+
+    @Test
+    public void keepsStringLiteralSharingRenamedConstant() throws IOException {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, CLASS_NAME, null, "java/lang/Object", null);
+        writer.visitField(Opcodes.ACC_PUBLIC, "strings", "Lcom/lib1/R$string;", null, null).visitEnd();
+        MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "read", "()I", null, null);
+        method.visitCode();
+        // both share the Utf8 entry of the class name, and of the field descriptor
+        method.visitLdcInsn("com/lib1/R$string");
+        method.visitInsn(Opcodes.POP);
+        method.visitLdcInsn("Lcom/lib1/R$string;");
+        method.visitInsn(Opcodes.POP);
+        method.visitFieldInsn(Opcodes.GETSTATIC, "com/lib1/R$string", "app_name", "I");
+        method.visitInsn(Opcodes.IRETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+        writer.visitEnd();
+
+        byte[] bytes = Files.readAllBytes(rewrite(writer.toByteArray(), true).toPath());
+        assertValid(bytes);
+        List<String> references = collectReferences(bytes);
+        assertTrue(references.toString(), references.contains("field Lcom/sdk/R$string;"));
+        assertTrue(references.toString(), references.contains("getstatic com/sdk/R$string.app_name I"));
+        assertTrue(references.toString(), references.contains("ldc com/lib1/R$string"));
+        assertTrue(references.toString(), references.contains("ldc Lcom/lib1/R$string;"));
+    }
+
+    @Test
+    public void rewritesAnnotations() throws IOException {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, CLASS_NAME, null, "java/lang/Object", null);
+        AnnotationVisitor annotation = writer.visitAnnotation("Lcom/example/Bind;", true);
+        annotation.visit("value", Type.getType("Lcom/lib1/R$id;"));
+        annotation.visitEnum("kind", "Lcom/lib2/R$layout;", "MAIN");
+        // a string value, sharing the Utf8 entry of the field descriptor below
+        annotation.visit("name", "Lcom/lib1/R$string;");
+        AnnotationVisitor array = annotation.visitArray("types");
+        array.visit(null, Type.getType("Lcom/lib2/R$string;"));
+        array.visit(null, Type.getType("[Lcom/lib1/R$layout;"));
+        array.visitEnd();
+        AnnotationVisitor nested = annotation.visitAnnotation("nested", "Lcom/example/Inner;");
+        nested.visit("value", Type.getType("Lcom/lib1/R$layout;"));
+        nested.visitEnd();
+        annotation.visitEnd();
+
+        FieldVisitor field = writer.visitField(Opcodes.ACC_PUBLIC, "strings", "Lcom/lib1/R$string;", null, null);
+        AnnotationVisitor typeAnnotation = field.visitTypeAnnotation(
+                TypeReference.newTypeReference(TypeReference.FIELD).getValue(), null, "Lcom/example/TypeUse;", false);
+        typeAnnotation.visit("value", Type.getType("Lcom/lib2/R$id;"));
+        typeAnnotation.visitEnd();
+        field.visitEnd();
+
+        MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC, "bind", "(I)V", null, null);
+        method.visitParameterAnnotation(0, "Lcom/example/Res;", true)
+                .visit("value", Type.getType("Lcom/lib1/R$string;"));
+        method.visitCode();
+        Label start = new Label();
+        Label end = new Label();
+        method.visitLabel(start);
+        method.visitInsn(Opcodes.ICONST_0);
+        method.visitVarInsn(Opcodes.ISTORE, 2);
+        method.visitInsn(Opcodes.RETURN);
+        method.visitLabel(end);
+        method.visitLocalVariable("local", "I", null, start, end, 2);
+        method.visitLocalVariableAnnotation(TypeReference.newTypeReference(TypeReference.LOCAL_VARIABLE).getValue(),
+                TypePath.fromString("["), new Label[]{start}, new Label[]{end}, new int[]{2},
+                "Lcom/example/Local;", false).visit("value", Type.getType("Lcom/lib2/R$layout;"));
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+
+        MethodVisitor abstractMethod = writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT,
+                "type", "()Ljava/lang/Class;", null, null);
+        AnnotationVisitor annotationDefault = abstractMethod.visitAnnotationDefault();
+        annotationDefault.visit(null, Type.getType("Lcom/lib1/R$id;"));
+        annotationDefault.visitEnd();
+        abstractMethod.visitEnd();
+        writer.visitEnd();
+
+        byte[] bytes = Files.readAllBytes(rewrite(writer.toByteArray(), true).toPath());
+        assertValid(bytes);
+        List<String> references = collectReferences(bytes);
+        assertTrue(references.toString(), references.contains("annotation value Lcom/sdk/R$id;"));
+        assertTrue(references.toString(), references.contains("annotation enum Lcom/sdk/R$layout;.MAIN"));
+        assertTrue(references.toString(), references.contains("annotation value Lcom/sdk/R$string;"));
+        assertTrue(references.toString(), references.contains("annotation value [Lcom/sdk/R$layout;"));
+        assertTrue(references.toString(), references.contains("annotation value Lcom/sdk/R$layout;"));
+        // the string value is not a type
+        assertTrue(references.toString(), references.contains("annotation value Lcom/lib1/R$string;"));
+        assertTrue(references.toString(), references.contains("field Lcom/sdk/R$string;"));
+        for (String reference : references) {
+            if (!reference.equals("annotation value Lcom/lib1/R$string;")) {
+                assertFalse(reference, reference.contains("com/lib1/R$"));
+                assertFalse(reference, reference.contains("com/lib2/R$"));
+            }
+        }
+        // six values of the class annotation, the type annotations of the field and the local variable,
+        // the parameter annotation and the default
+        int annotationCount = 0;
+        for (String reference : references) {
+            if (reference.startsWith("annotation ")) {
+                annotationCount++;
+            }
+        }
+        assertEquals(10, annotationCount);
+    }
+
+    private File rewrite(byte[] bytes, boolean expectRewritten) throws IOException {
+        File input = write(bytes);
+        File output = new File(mTemporaryFolder.getRoot(), "Foo.out.class");
+        assertEquals(expectRewritten, new RClassesRewriter().rewrite(input, output, mTransformTable));
+        return output;
+    }
+
+    private File write(byte[] bytes) throws IOException {
+        File file = mTemporaryFolder.newFile();
+        Files.write(file.toPath(), bytes);
+        return file;
+    }
+
+    private static void assertValid(byte[] bytes) {
+        StringWriter errors = new StringWriter();
+        CheckClassAdapter.verify(new ClassReader(bytes), false, new PrintWriter(errors));
+        assertEquals("", errors.toString());
+    }
+
+    /**
+     * A class referencing R classes as field type, in a method descriptor, as field owners,
+     * as array type and as class constant.
+     */
+    private static byte[] generateClass() {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, CLASS_NAME, null, "java/lang/Object", null);
+        writer.visitField(Opcodes.ACC_PUBLIC, "strings", "Lcom/lib1/R$string;", null, null).visitEnd();
+
+        MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC,
+                "read", "(Lcom/lib1/R$id;)I", null, null);
+        method.visitCode();
+        method.visitLdcInsn(Type.getObjectType("com/lib1/R$layout"));
+        method.visitInsn(Opcodes.POP);
+        method.visitLdcInsn("com.lib1.R$string");
+        method.visitInsn(Opcodes.POP);
+        method.visitInsn(Opcodes.ACONST_NULL);
+        method.visitTypeInsn(Opcodes.CHECKCAST, "[Lcom/lib2/R$id;");
+        method.visitInsn(Opcodes.POP);
+        method.visitFieldInsn(Opcodes.GETSTATIC, "com/lib1/R$string", "app_name", "I");
+        method.visitFieldInsn(Opcodes.GETSTATIC, "com/lib2/R$id", "title", "I");
+        method.visitInsn(Opcodes.IADD);
+        method.visitFieldInsn(Opcodes.GETSTATIC, "com/other/R$string", "other", "I");
+        method.visitInsn(Opcodes.IADD);
+        method.visitInsn(Opcodes.IRETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    private static List<String> collectReferences(byte[] bytes) {
+        List<String> references = new ArrayList<>();
+        new ClassReader(bytes).accept(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+                return new AnnotationCollector(references);
+            }
+
+            @Override
+            public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+                references.add("field " + descriptor);
+                if (signature != null) {
+                    references.add("signature " + signature);
+                }
+                return new FieldVisitor(Opcodes.ASM9) {
+                    @Override
+                    public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor,
+                                                                 boolean visible) {
+                        return new AnnotationCollector(references);
+                    }
+                };
+            }
+
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+                                             String[] exceptions) {
+                references.add("method " + name + " " + descriptor);
+                if (signature != null) {
+                    references.add("signature " + signature);
+                }
+                return new MethodVisitor(Opcodes.ASM9) {
+                    @Override
+                    public AnnotationVisitor visitParameterAnnotation(int parameter, String descriptor,
+                                                                      boolean visible) {
+                        return new AnnotationCollector(references);
+                    }
+
+                    @Override
+                    public AnnotationVisitor visitAnnotationDefault() {
+                        return new AnnotationCollector(references);
+                    }
+
+                    @Override
+                    public AnnotationVisitor visitLocalVariableAnnotation(int typeRef, TypePath typePath,
+                                                                          Label[] start, Label[] end, int[] index,
+                                                                          String descriptor, boolean visible) {
+                        return new AnnotationCollector(references);
+                    }
+
+                    @Override
+                    public void visitLocalVariable(String name, String descriptor, String signature,
+                                                   Label start, Label end, int index) {
+                        references.add("local " + descriptor);
+                    }
+
+                    @Override
+                    public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+                        references.add("getstatic " + owner + "." + name + " " + descriptor);
+                    }
+
+                    @Override
+                    public void visitTypeInsn(int opcode, String type) {
+                        references.add("checkcast " + type);
+                    }
+
+                    @Override
+                    public void visitLdcInsn(Object value) {
+                        references.add("ldc " + (value instanceof Type ? ((Type) value).getDescriptor() : value));
+                    }
+                };
+            }
+        }, 0);
+        return references;
+    }
+
+    /**
+     * Collects the types, enums and strings of annotation values, nested ones included.
+     */
+    private static final class AnnotationCollector extends AnnotationVisitor {
+
+        private final List<String> mReferences;
+
+        AnnotationCollector(List<String> references) {
+            super(Opcodes.ASM9);
+            this.mReferences = references;
+        }
+
+        @Override
+        public void visit(String name, Object value) {
+            mReferences.add("annotation value " + (value instanceof Type ? ((Type) value).getDescriptor() : value));
+        }
+
+        @Override
+        public void visitEnum(String name, String descriptor, String value) {
+            mReferences.add("annotation enum " + descriptor + "." + value);
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String name, String descriptor) {
+            return this;
+        }
+
+        @Override
+        public AnnotationVisitor visitArray(String name) {
+            return this;
+        }
+    }
+}